@@ -0,0 +1,105 @@
+package de.nubisoft.backend;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Application booted on a random port against an embedded Redis server, so benchmarks run offline and never touch
+ * a shared Redis instance.
+ */
+public class EmbeddedRedisApplication implements AutoCloseable {
+
+    private final RedisServer redisServer;
+
+    private final ConfigurableApplicationContext context;
+
+    /**
+     * @param properties application properties overriding {@code application.yml}, e.g. lower fetch latency
+     */
+    public EmbeddedRedisApplication(Map<String, Object> properties) {
+        var redisPort = freePort();
+        try {
+            redisServer = new RedisServer(redisPort);
+            redisServer.start();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to start embedded Redis on port " + redisPort, unexpected);
+        }
+        var applicationProperties = new HashMap<String, Object>();
+        applicationProperties.put("spring.data.redis.host", "localhost");
+        applicationProperties.put("spring.data.redis.port", redisPort);
+        applicationProperties.put("server.port", 0);
+        applicationProperties.put("spring.main.banner-mode", "off");
+        // Per request INFO logs of PatientsService would dominate measured hit latency
+        applicationProperties.put("logging.level.de.nubisoft", "WARN");
+        applicationProperties.putAll(properties);
+        context = new SpringApplicationBuilder(Application.class)
+                .properties(applicationProperties)
+                .run();
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public <T> T getBean(String name, Class<T> type) {
+        return context.getBean(name, type);
+    }
+
+    /**
+     * Makes Redis stall: it keeps accepting connections but does not execute commands of any client for the duration.
+     */
+    public void pauseRedis(Duration duration) {
+        getBean(StringRedisTemplate.class).execute((RedisCallback<Object>) connection -> connection.execute("CLIENT",
+                "PAUSE".getBytes(StandardCharsets.US_ASCII),
+                String.valueOf(duration.toMillis()).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Makes Redis unreachable: connections are refused until {@link #startRedis()}.
+     */
+    public void stopRedis() {
+        try {
+            redisServer.stop();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to stop embedded Redis", unexpected);
+        }
+    }
+
+    public void startRedis() {
+        try {
+            redisServer.start();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to start embedded Redis", unexpected);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            context.close();
+        } finally {
+            if (redisServer.isActive()) {
+                stopRedis();
+            }
+        }
+    }
+
+    private static int freePort() {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to find a free port", unexpected);
+        }
+    }
+}
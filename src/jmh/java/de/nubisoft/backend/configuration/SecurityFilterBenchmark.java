@@ -0,0 +1,54 @@
+package de.nubisoft.backend.configuration;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares per-request authentication cost of the former regex and split based token validation with the
+ * allocation-free validation and with the authentication cache.
+ * <p>
+ * Run with the GC profiler to compare allocations: ./gradlew jmh -PjmhIncludes=SecurityFilterBenchmark -PjmhProfilers=gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SecurityFilterBenchmark {
+
+    @Param({"1", "doctor-with-a-much-longer-identifier"})
+    public String user;
+
+    private String userToken;
+
+    private SecurityFilter securityFilter;
+
+    @Setup
+    public void setUp() {
+        userToken = user + ".auth_token_for_user_" + user;
+        securityFilter = new SecurityFilter(new RequestAttributeSecurityContextRepository());
+    }
+
+    @Benchmark
+    public Authentication legacyValidation() {
+        if (userToken != null && userToken.matches(".+\\..+")
+                && userToken.split("\\.", 2)[1].equals("auth_token_for_user_".concat(userToken.split("\\.", 2)[0]))) {
+            return new UsernamePasswordAuthenticationToken(userToken.split("\\.", 2)[0], null, List.of());
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Authentication allocationFreeValidation() {
+        var userLength = SecurityFilter.validUserLength(userToken);
+        return userLength < 0 ? null : new UsernamePasswordAuthenticationToken(userToken.substring(0, userLength), null, List.of());
+    }
+
+    @Benchmark
+    public Authentication cachedAuthentication() {
+        return securityFilter.authenticate(userToken);
+    }
+}
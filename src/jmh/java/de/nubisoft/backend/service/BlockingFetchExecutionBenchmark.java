@@ -0,0 +1,74 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.cache.DocumentChunkStore;
+import de.nubisoft.backend.cache.RedisCircuitBreaker;
+import de.nubisoft.backend.configuration.FetchProperties;
+import de.nubisoft.backend.configuration.VirtualThreads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares request handling on Tomcat's default platform thread pool (200 threads) with virtual threads,
+ * for a burst of concurrent cache misses blocking on the document fetch.
+ * <p>
+ * Virtual threads mode requires Java 21+: ./gradlew jmh -PjavaVersion=21 -PjmhIncludes=BlockingFetchExecutionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class BlockingFetchExecutionBenchmark {
+
+    private static final int TOMCAT_DEFAULT_MAX_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"600"})
+    public int concurrentRequests;
+
+    private PatientDocumentsFetcher fetcher;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        // Chunks registered by the fetcher itself are resolved locally, Redis is not used
+        var meterRegistry = new SimpleMeterRegistry();
+        var chunkStore = new DocumentChunkStore(null, 0, Duration.ofDays(1),
+                new RedisCircuitBreaker(1, Duration.ofDays(1), meterRegistry));
+        fetcher = new PatientDocumentsFetcher(new FetchProperties(1, 1, Duration.ofMillis(100), Duration.ofSeconds(30), 1), chunkStore,
+                meterRegistry);
+        executor = "virtual".equals(threads)
+                ? VirtualThreads.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(TOMCAT_DEFAULT_MAX_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int burstOfCacheMisses() throws ExecutionException, InterruptedException {
+        var requests = new ArrayList<Future<Integer>>(concurrentRequests);
+        for (int request = 0; request < concurrentRequests; request++) {
+            var patientId = String.valueOf(request);
+            requests.add(executor.submit(() -> fetcher.fetchDocumentsBlocking(patientId).size()));
+        }
+        var fetchedDocuments = 0;
+        for (var request : requests) {
+            fetchedDocuments += request.get();
+        }
+        return fetchedDocuments;
+    }
+}
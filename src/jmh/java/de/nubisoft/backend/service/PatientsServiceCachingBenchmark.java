@@ -0,0 +1,230 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.EmbeddedRedisApplication;
+import de.nubisoft.backend.domain.PatientDocumentsResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the caching strategies of {@link PatientsService} against a running application backed by embedded Redis:
+ * <ul>
+ *     <li>{@code *Hit} - latency of a cached entry (V5/V6 hits are served by the pod local near cache),</li>
+ *     <li>{@code *Miss} - latency of an evicted entry, including the (shortened) external service call,</li>
+ *     <li>{@code *Contended} - throughput of hits with 8 concurrent threads asking for the same patient,</li>
+ *     <li>key generation of {@link LoginUserAwareCacheKeyGenerator} compared with {@link SimpleKeyGenerator}.</li>
+ * </ul>
+ * V1 (no cache) and V7 (cache bypassed by self invocation) are the baselines of a miss.
+ * <p>
+ * Write-behind of V4 is disabled: an asynchronous write of one invocation could land after the eviction before the
+ * next one, which would then be a hit. V4 miss includes the write to Redis.
+ * <p>
+ * Allocation per operation is reported by the GC profiler: ./gradlew jmh -PjmhIncludes=PatientsServiceCachingBenchmark -PjmhProfilers=gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PatientsServiceCachingBenchmark {
+
+    private static final String DOCTOR_ID = "1";
+
+    private static final String PATIENT_ID = "1";
+
+    private static final int CONTENDING_THREADS = 8;
+
+    private EmbeddedRedisApplication application;
+
+    private PatientsService patientsService;
+
+    private CacheInvalidationService cacheInvalidationService;
+
+    private KeyGenerator loginUserAwareCacheKeyGenerator;
+
+    private final KeyGenerator simpleKeyGenerator = new SimpleKeyGenerator();
+
+    private Method cachedMethod;
+
+    /**
+     * Doctor logged in on every benchmark thread, as {@link LoginService} relies on the thread bound security context.
+     */
+    @State(Scope.Thread)
+    public static class LoggedDoctor {
+
+        @Setup(Level.Trial)
+        public void logIn() {
+            logInAs(DOCTOR_ID);
+        }
+
+        @TearDown(Level.Trial)
+        public void logOut() {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Evicts the patient from all caches before every invocation, so every call is a miss.
+     */
+    @State(Scope.Thread)
+    public static class EvictedPatient {
+
+        @Setup(Level.Invocation)
+        public void evict(PatientsServiceCachingBenchmark benchmark) {
+            benchmark.cacheInvalidationService.evictPatient(PATIENT_ID);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchMethodException {
+        // Short external service latency, so misses measure the caching overhead rather than the simulated network
+        application = new EmbeddedRedisApplication(Map.of(
+                "caching.fetch.latency", "1ms",
+                "caching.redis.write-behind", "false"));
+        patientsService = application.getBean(PatientsService.class);
+        cacheInvalidationService = application.getBean(CacheInvalidationService.class);
+        loginUserAwareCacheKeyGenerator = application.getBean("loginUserAwareCacheKeyGenerator", KeyGenerator.class);
+        cachedMethod = PatientsService.class.getMethod("getPatientDocumentsV6", String.class);
+
+        logInAs(DOCTOR_ID);
+        try {
+            patientsService.getPatientDocumentsV2(PATIENT_ID);
+            patientsService.getPatientDocumentsV3(PATIENT_ID);
+            patientsService.getPatientDocumentsV4(PATIENT_ID);
+            patientsService.getPatientDocumentsV5(PATIENT_ID);
+            patientsService.getPatientDocumentsV6(PATIENT_ID);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.close();
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v1NoCache(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV1(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v2ConcurrentMapHit(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV2(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v3CaffeineHit(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV3(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v4RedisTemplateHit(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV4(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v5CacheableHit(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV5(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v6CacheableLoginAwareHit(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV6(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v7CacheableSelfInvocation(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV7(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v2ConcurrentMapMiss(LoggedDoctor loggedDoctor, EvictedPatient evictedPatient) {
+        return patientsService.getPatientDocumentsV2(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v3CaffeineMiss(LoggedDoctor loggedDoctor, EvictedPatient evictedPatient) {
+        return patientsService.getPatientDocumentsV3(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v4RedisTemplateMiss(LoggedDoctor loggedDoctor, EvictedPatient evictedPatient) {
+        return patientsService.getPatientDocumentsV4(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v5CacheableMiss(LoggedDoctor loggedDoctor, EvictedPatient evictedPatient) {
+        return patientsService.getPatientDocumentsV5(PATIENT_ID);
+    }
+
+    @Benchmark
+    public PatientDocumentsResponse v6CacheableLoginAwareMiss(LoggedDoctor loggedDoctor, EvictedPatient evictedPatient) {
+        return patientsService.getPatientDocumentsV6(PATIENT_ID);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientDocumentsResponse v2ConcurrentMapContended(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV2(PATIENT_ID);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientDocumentsResponse v3CaffeineContended(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV3(PATIENT_ID);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientDocumentsResponse v4RedisTemplateContended(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV4(PATIENT_ID);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientDocumentsResponse v5CacheableContended(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV5(PATIENT_ID);
+    }
+
+    @Benchmark
+    @Threads(CONTENDING_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PatientDocumentsResponse v6CacheableLoginAwareContended(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV6(PATIENT_ID);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object simpleKeyGeneration() {
+        return simpleKeyGenerator.generate(patientsService, cachedMethod, PATIENT_ID);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object loginUserAwareKeyGeneration(LoggedDoctor loggedDoctor) {
+        return loginUserAwareCacheKeyGenerator.generate(patientsService, cachedMethod, PATIENT_ID);
+    }
+
+    private static void logInAs(String doctorId) {
+        var context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(new UsernamePasswordAuthenticationToken(doctorId, null, List.of()));
+        SecurityContextHolder.setContext(context);
+    }
+}
@@ -0,0 +1,92 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.EmbeddedRedisApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures latency of the Redis backed caching strategies of {@link PatientsService} while Redis is available,
+ * stalled ({@code CLIENT PAUSE}, every call runs into the client timeout) and down (connections are refused).
+ * <p>
+ * During an outage the Redis circuit breaker is expected to keep the latency bounded by local caches and loaders,
+ * except for a trial call per {@code caching.redis.open-duration}.
+ * <p>
+ * ./gradlew jmh -PjmhIncludes=RedisOutageBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RedisOutageBenchmark {
+
+    private static final String DOCTOR_ID = "1";
+
+    private static final String PATIENT_ID = "1";
+
+    @Param({"available", "paused", "stopped"})
+    public String redis;
+
+    private EmbeddedRedisApplication application;
+
+    private PatientsService patientsService;
+
+    /**
+     * Doctor logged in on every benchmark thread, as {@link LoginService} relies on the thread bound security context.
+     */
+    @State(Scope.Thread)
+    public static class LoggedDoctor {
+
+        @Setup(Level.Trial)
+        public void logIn() {
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(DOCTOR_ID, null, List.of()));
+        }
+
+        @TearDown(Level.Trial)
+        public void logOut() {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        application = new EmbeddedRedisApplication(Map.of("caching.fetch.latency", "1ms"));
+        patientsService = application.getBean(PatientsService.class);
+        switch (redis) {
+            case "paused" -> application.pauseRedis(Duration.ofHours(1));
+            case "stopped" -> application.stopRedis();
+            default -> {
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // A paused Redis would not answer the commands issued on shutdown
+        if (!"available".equals(redis)) {
+            application.stopRedis();
+        }
+        application.close();
+    }
+
+    @Benchmark
+    public Object v4(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV4(PATIENT_ID);
+    }
+
+    @Benchmark
+    public Object v5(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV5(PATIENT_ID);
+    }
+
+    @Benchmark
+    public Object v6(LoggedDoctor loggedDoctor) {
+        return patientsService.getPatientDocumentsV6(PATIENT_ID);
+    }
+}
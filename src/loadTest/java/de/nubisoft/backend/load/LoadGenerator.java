@@ -0,0 +1,152 @@
+package de.nubisoft.backend.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator: every client sends a request of the traffic mix, waits for the whole response and
+ * sends the next one. Requests are balanced round-robin over the targets.
+ * <p>
+ * Latency of successful requests is recorded per strategy, from sending the request until the body is read.
+ * Responses other than 2xx, timeouts and connection failures count as errors. As clients wait for responses, a slow
+ * server lowers the request rate (coordinated omission), so throughput has to be compared along with latency.
+ */
+final class LoadGenerator {
+
+    private static final String USER_TOKEN_HEADER_NAME = "User-Token";
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final List<URI> targets;
+
+    private final TrafficMix trafficMix;
+
+    private final int concurrency;
+
+    private final Duration requestTimeout;
+
+    private final HttpClient httpClient;
+
+    private final AtomicLong sentRequests = new AtomicLong();
+
+    /**
+     * Latencies and errors of one strategy.
+     *
+     * @param latencies latencies of successful requests, in nanoseconds
+     * @param errors    number of failed requests
+     */
+    record StrategyResults(Histogram latencies, long errors) {
+
+        StrategyResults merge(StrategyResults other) {
+            var merged = latencies.copy();
+            merged.add(other.latencies());
+            return new StrategyResults(merged, errors + other.errors());
+        }
+    }
+
+    LoadGenerator(List<URI> targets, TrafficMix trafficMix, int concurrency, Duration requestTimeout) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("At least one target has to be given");
+        }
+        this.targets = List.copyOf(targets);
+        this.trafficMix = trafficMix;
+        this.concurrency = concurrency;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(requestTimeout)
+                .build();
+    }
+
+    /**
+     * Sends requests of all clients for the duration.
+     *
+     * @return results per strategy
+     */
+    Map<String, StrategyResults> run(Duration duration) {
+        var deadline = System.nanoTime() + duration.toNanos();
+        var executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            var clients = new ArrayList<Future<Map<String, Client>>>();
+            for (int i = 0; i < concurrency; i++) {
+                clients.add(executor.submit(() -> runClient(deadline)));
+            }
+            var results = new HashMap<String, StrategyResults>();
+            for (var client : clients) {
+                client.get().forEach((strategy, clientResults) ->
+                        results.merge(strategy, clientResults.results(), StrategyResults::merge));
+            }
+            return results;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Load test was interrupted", interrupted);
+        } catch (ExecutionException failure) {
+            throw new IllegalStateException("Load test client failed", failure.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, Client> runClient(long deadline) {
+        var random = ThreadLocalRandom.current();
+        var results = new HashMap<String, Client>();
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            var request = trafficMix.next(random);
+            var client = results.computeIfAbsent(request.strategy(), strategy -> new Client());
+            var startedAt = System.nanoTime();
+            if (send(request)) {
+                client.latencies.recordValue(System.nanoTime() - startedAt);
+            } else {
+                client.errors++;
+            }
+        }
+        return results;
+    }
+
+    private boolean send(TrafficMix.Request request) {
+        var target = targets.get((int) (sentRequests.getAndIncrement() % targets.size()));
+        var httpRequest = HttpRequest.newBuilder(target.resolve(request.path()))
+                .header(USER_TOKEN_HEADER_NAME, request.userToken())
+                .timeout(requestTimeout)
+                .GET()
+                .build();
+        try {
+            var response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2;
+        } catch (IOException failure) {
+            return false;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Results of one client, recorded without synchronization.
+     */
+    private static final class Client {
+
+        private final Histogram latencies = new Histogram(SIGNIFICANT_DIGITS);
+
+        private long errors;
+
+        StrategyResults results() {
+            return new StrategyResults(latencies, errors);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.nubisoft.backend.load;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report of a load test run: a summary table on the console and, in the report directory, the summary as JSON
+ * (usable as a baseline of later runs) and the full latency distribution of every strategy in HdrHistogram's
+ * percentile format ({@code <strategy>.hgrm}, in milliseconds, can be plotted by HdrHistogram's plotter).
+ */
+final class LoadReport {
+
+    static final String SUMMARY_FILE = "summary.json";
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private LoadReport() {
+    }
+
+    static List<StrategySummary> write(Map<String, LoadGenerator.StrategyResults> results, Duration duration,
+                                       Path reportDirectory, PrintStream console) {
+        var summaries = results.entrySet().stream()
+                .map(strategyResults -> StrategySummary.of(strategyResults.getKey(), strategyResults.getValue(), duration))
+                .sorted(Comparator.comparing(StrategySummary::strategy))
+                .toList();
+        try {
+            Files.createDirectories(reportDirectory);
+            for (var strategyResults : results.entrySet()) {
+                try (var distribution = new PrintStream(
+                        Files.newOutputStream(reportDirectory.resolve(strategyResults.getKey() + ".hgrm")), false, StandardCharsets.UTF_8)) {
+                    strategyResults.getValue().latencies().outputPercentileDistribution(distribution, NANOS_PER_MILLI);
+                }
+            }
+            OBJECT_MAPPER.writeValue(reportDirectory.resolve(SUMMARY_FILE).toFile(), summaries);
+        } catch (IOException unwritable) {
+            throw new UncheckedIOException("Unable to write load test report to " + reportDirectory, unwritable);
+        }
+        console.printf("%-10s %10s %8s %12s %10s %10s %10s %10s %10s%n",
+                "strategy", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (var summary : summaries) {
+            console.printf("%-10s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                    summary.strategy(), summary.requests(), summary.errors(), summary.throughput(), summary.p50Millis(),
+                    summary.p90Millis(), summary.p99Millis(), summary.p999Millis(), summary.maxMillis());
+        }
+        console.println("Report written to " + reportDirectory.toAbsolutePath());
+        return summaries;
+    }
+
+    static List<StrategySummary> read(Path summaryFile) {
+        try {
+            return OBJECT_MAPPER.readValue(summaryFile.toFile(), new TypeReference<>() {
+            });
+        } catch (IOException unreadable) {
+            throw new UncheckedIOException("Unable to read load test summary " + summaryFile, unreadable);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.nubisoft.backend.load;
+
+import java.util.List;
+
+/**
+ * Load test of the documents endpoints: replays a weighted mix of strategies (endpoint versions) for configured
+ * doctors, with Zipf skewed patient popularity, against local instances sharing an embedded Redis (or against
+ * given targets, e.g. the docker-compose nginx), reports latency and throughput of every strategy and fails on
+ * regressions.
+ * <p>
+ * ./gradlew loadTest [-PloadTestStrategies=v3:4,v5:1] [-PloadTestBaseline=build/reports/load-test-baseline/summary.json]
+ *
+ * @see LoadTestSettings
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        var settings = LoadTestSettings.fromSystemProperties();
+        var trafficMix = new TrafficMix(settings.strategies(), settings.doctors(), TrafficMix.readPatients(settings.patients()),
+                settings.zipfExponent());
+        List<StrategySummary> summaries;
+        if (settings.targets().isEmpty()) {
+            System.out.printf("Starting %d instances (-Xmx%s) sharing an embedded Redis%n", settings.instances(),
+                    settings.instanceHeap());
+            try (var cluster = new LocalCluster(settings.instances(), settings.fetchLatency(), settings.instanceHeap(),
+                    settings.reportDirectory())) {
+                summaries = run(settings, new LoadGenerator(cluster.baseUrls(), trafficMix, settings.concurrency(),
+                        settings.requestTimeout()));
+            }
+        } else {
+            summaries = run(settings, new LoadGenerator(settings.targets(), trafficMix, settings.concurrency(),
+                    settings.requestTimeout()));
+        }
+        var baseline = settings.baseline() == null ? List.<StrategySummary>of() : LoadReport.read(settings.baseline());
+        var violations = RegressionCheck.check(summaries, RegressionCheck.readThresholds(settings.thresholds()), baseline,
+                settings.baselineTolerance());
+        if (!violations.isEmpty()) {
+            violations.forEach(violation -> System.err.println("REGRESSION: " + violation));
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static List<StrategySummary> run(LoadTestSettings settings, LoadGenerator loadGenerator) {
+        System.out.printf("Warming up for %s with %d clients%n", settings.warmUp(), settings.concurrency());
+        loadGenerator.run(settings.warmUp());
+        System.out.printf("Recording for %s with %d clients, strategies %s, doctors %s, Zipf exponent %.2f%n",
+                settings.duration(), settings.concurrency(), settings.strategies(), settings.doctors(), settings.zipfExponent());
+        var results = loadGenerator.run(settings.duration());
+        return LoadReport.write(results, settings.duration(), settings.reportDirectory(), System.out);
+    }
+}
@@ -0,0 +1,91 @@
+package de.nubisoft.backend.load;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from system properties ({@code -P<name>=<value>} of the {@code loadTest} task).
+ *
+ * @param targets           base URLs requests are balanced over ({@code loadTestTargets}, comma separated, e.g. the
+ *                          nginx of docker-compose), local instances are started when none are given
+ * @param instances         number of local instances sharing one embedded Redis ({@code loadTestInstances})
+ * @param instanceHeap      maximum heap of every local instance, as of a pod ({@code loadTestInstanceHeap})
+ * @param fetchLatency      latency of the simulated external service of local instances ({@code loadTestFetchLatency})
+ * @param strategies        documents endpoint versions with their relative weights in the traffic mix
+ *                          ({@code loadTestStrategies}, e.g. {@code v3:4,v5:1}, weight 1 when omitted)
+ * @param doctors           logged doctors, picked uniformly ({@code loadTestDoctors})
+ * @param patients          CSV resource with {@code doctorId,patientId} lines ({@code loadTestPatients})
+ * @param zipfExponent      skew of patient popularity within doctor's patients, 0 for uniform
+ *                          ({@code loadTestZipfExponent})
+ * @param concurrency       number of concurrent clients, each sending requests one after another
+ *                          ({@code loadTestConcurrency})
+ * @param warmUp            duration of traffic which is not recorded ({@code loadTestWarmUp})
+ * @param duration          duration of recorded traffic ({@code loadTestDuration})
+ * @param requestTimeout    timeout of a single request, counted as an error ({@code loadTestRequestTimeout})
+ * @param reportDirectory   directory of latency distributions and of {@value LoadReport#SUMMARY_FILE}
+ *                          ({@code loadTestReportDirectory})
+ * @param thresholds        absolute limits, file or classpath resource ({@code loadTestThresholds})
+ * @param baseline          summary of a previous run the results are compared with, not compared when {@code null}
+ *                          ({@code loadTestBaseline})
+ * @param baselineTolerance allowed relative regression against the baseline ({@code loadTestBaselineTolerance})
+ */
+record LoadTestSettings(List<URI> targets, int instances, String instanceHeap, Duration fetchLatency, Map<String, Integer> strategies,
+                        List<String> doctors, String patients, double zipfExponent, int concurrency, Duration warmUp,
+                        Duration duration, Duration requestTimeout, Path reportDirectory, String thresholds,
+                        Path baseline, double baselineTolerance) {
+
+    static LoadTestSettings fromSystemProperties() {
+        var baseline = System.getProperty("loadTestBaseline");
+        return new LoadTestSettings(
+                list("loadTestTargets", "").stream().map(URI::create).toList(),
+                Integer.parseInt(System.getProperty("loadTestInstances", "2")),
+                System.getProperty("loadTestInstanceHeap", "256M"),
+                duration("loadTestFetchLatency", "100ms"),
+                strategies(list("loadTestStrategies", "v1,v2,v3,v4,v5,v6,v7")),
+                list("loadTestDoctors", "1,2"),
+                System.getProperty("loadTestPatients", "classpath:patients.csv"),
+                Double.parseDouble(System.getProperty("loadTestZipfExponent", "1.0")),
+                Integer.parseInt(System.getProperty("loadTestConcurrency", "16")),
+                duration("loadTestWarmUp", "15s"),
+                duration("loadTestDuration", "60s"),
+                duration("loadTestRequestTimeout", "30s"),
+                Path.of(System.getProperty("loadTestReportDirectory", "build/reports/load-test")),
+                System.getProperty("loadTestThresholds", "classpath:load-test-thresholds.properties"),
+                baseline == null || baseline.isBlank() ? null : Path.of(baseline),
+                Double.parseDouble(System.getProperty("loadTestBaselineTolerance", "0.25")));
+    }
+
+    private static List<String> list(String name, String defaultValue) {
+        return Arrays.stream(System.getProperty(name, defaultValue).split(","))
+                .map(String::strip)
+                .filter(value -> !value.isEmpty())
+                .toList();
+    }
+
+    private static Duration duration(String name, String defaultValue) {
+        return DurationStyle.detectAndParse(System.getProperty(name, defaultValue));
+    }
+
+    private static Map<String, Integer> strategies(List<String> weightedStrategies) {
+        var strategies = new LinkedHashMap<String, Integer>();
+        for (var weightedStrategy : weightedStrategies) {
+            var separator = weightedStrategy.indexOf(':');
+            var weight = separator < 0 ? 1 : Integer.parseInt(weightedStrategy.substring(separator + 1));
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight of a strategy has to be positive: " + weightedStrategy);
+            }
+            strategies.put(separator < 0 ? weightedStrategy : weightedStrategy.substring(0, separator), weight);
+        }
+        if (strategies.isEmpty()) {
+            throw new IllegalArgumentException("At least one strategy has to be given");
+        }
+        return strategies;
+    }
+}
@@ -0,0 +1,176 @@
+package de.nubisoft.backend.load;
+
+import de.nubisoft.backend.Application;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in of the docker-compose topology: application instances (pods) on free ports sharing one embedded
+ * Redis server, requests are balanced over them by the load generator instead of nginx.
+ * <p>
+ * Every instance is a separate JVM with the heap of a pod, so heap based cache budgets, pressure shrinking and GC
+ * behave as in production. Instances run the classpath of the load test, their output goes to
+ * {@code instance-<n>.log} in the log directory. The cluster is ready once all instances report readiness (after
+ * their warm-up).
+ */
+final class LocalCluster implements AutoCloseable {
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(3);
+
+    private static final Duration READINESS_POLL_INTERVAL = Duration.ofMillis(500);
+
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final RedisServer redisServer;
+
+    private final List<Instance> instances = new ArrayList<>();
+
+    private record Instance(Process process, URI baseUrl, Path log) {
+    }
+
+    /**
+     * @param instanceHeap maximum heap of every instance, e.g. {@code 256M}
+     * @param logDirectory directory of the instances' output
+     */
+    LocalCluster(int instanceCount, Duration fetchLatency, String instanceHeap, Path logDirectory) {
+        var redisPort = freePort();
+        try {
+            redisServer = new RedisServer(redisPort);
+            redisServer.start();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to start embedded Redis on port " + redisPort, unexpected);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> instances.forEach(instance -> instance.process().destroyForcibly())));
+        try {
+            Files.createDirectories(logDirectory);
+            for (int i = 0; i < instanceCount; i++) {
+                instances.add(start(i, redisPort, fetchLatency, instanceHeap, logDirectory));
+            }
+            awaitReadiness();
+        } catch (IOException startupFailure) {
+            close();
+            throw new UncheckedIOException("Unable to start instances", startupFailure);
+        } catch (RuntimeException startupFailure) {
+            close();
+            throw startupFailure;
+        }
+    }
+
+    List<URI> baseUrls() {
+        return instances.stream().map(Instance::baseUrl).toList();
+    }
+
+    @Override
+    public void close() {
+        try {
+            // Graceful shutdown first, so instances stop as pods do
+            instances.forEach(instance -> instance.process().destroy());
+            for (var instance : instances) {
+                if (!waitFor(instance.process(), SHUTDOWN_TIMEOUT)) {
+                    instance.process().destroyForcibly();
+                }
+            }
+        } finally {
+            try {
+                if (redisServer.isActive()) {
+                    redisServer.stop();
+                }
+            } catch (IOException unexpected) {
+                throw new UncheckedIOException("Unable to stop embedded Redis", unexpected);
+            }
+        }
+    }
+
+    private static Instance start(int index, int redisPort, Duration fetchLatency, String heap, Path logDirectory)
+            throws IOException {
+        var port = freePort();
+        var log = logDirectory.resolve("instance-" + index + ".log");
+        var java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        var process = new ProcessBuilder(java,
+                "-Xmx" + heap,
+                "-cp", System.getProperty("java.class.path"),
+                Application.class.getName(),
+                "--server.port=" + port,
+                "--spring.data.redis.host=localhost",
+                "--spring.data.redis.port=" + redisPort,
+                "--spring.main.banner-mode=off",
+                // Per request INFO logs would dominate latency of cache hits
+                "--logging.level.de.nubisoft=WARN",
+                "--caching.fetch.latency=" + fetchLatency.toMillis() + "ms")
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        return new Instance(process, URI.create("http://localhost:" + port), log);
+    }
+
+    private void awaitReadiness() {
+        var httpClient = HttpClient.newBuilder().connectTimeout(READINESS_POLL_INTERVAL).build();
+        var deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        for (var instance : instances) {
+            var readiness = HttpRequest.newBuilder(instance.baseUrl().resolve("/actuator/health/readiness"))
+                    .timeout(READINESS_POLL_INTERVAL)
+                    .build();
+            while (!isReady(httpClient, readiness)) {
+                if (!instance.process().isAlive()) {
+                    throw new IllegalStateException("Instance " + instance.baseUrl() + " has exited, see " + instance.log());
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("Instance " + instance.baseUrl() + " is not ready within "
+                            + STARTUP_TIMEOUT + ", see " + instance.log());
+                }
+                sleep(READINESS_POLL_INTERVAL);
+            }
+        }
+    }
+
+    private static boolean isReady(HttpClient httpClient, HttpRequest readiness) {
+        try {
+            return httpClient.send(readiness, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException notListeningYet) {
+            return false;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for instances", interrupted);
+        }
+    }
+
+    private static boolean waitFor(Process process, Duration timeout) {
+        try {
+            return process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for instances", interrupted);
+        }
+    }
+
+    private static int freePort() {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to find a free port", unexpected);
+        }
+    }
+}
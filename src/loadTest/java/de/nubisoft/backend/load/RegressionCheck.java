@@ -0,0 +1,90 @@
+package de.nubisoft.backend.load;
+
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Checks results of a run against absolute thresholds and, optionally, against the summary of a baseline run.
+ * <p>
+ * Thresholds are properties {@code <strategy>.<metric>=<limit>}, where strategy {@code *} applies to all strategies.
+ * {@code throughput} is a lower limit, all other metrics (see {@link StrategySummary#metric(String)}) are upper ones.
+ * <p>
+ * Against the baseline, p50 and p99 latencies may grow and throughput may drop by at most the tolerance (relative)
+ * for strategies present in both runs.
+ */
+final class RegressionCheck {
+
+    private static final String ALL_STRATEGIES = "*";
+
+    private static final String THROUGHPUT = "throughput";
+
+    private static final List<String> BASELINE_LATENCIES = List.of("p50", "p99");
+
+    private RegressionCheck() {
+    }
+
+    /**
+     * @return violated thresholds, empty when there is no regression
+     */
+    static List<String> check(List<StrategySummary> summaries, Properties thresholds, List<StrategySummary> baseline,
+                              double tolerance) {
+        var violations = new ArrayList<String>();
+        for (var summary : summaries) {
+            for (var threshold : thresholds.stringPropertyNames()) {
+                var separator = threshold.lastIndexOf('.');
+                var strategy = threshold.substring(0, separator);
+                if (!strategy.equals(ALL_STRATEGIES) && !strategy.equals(summary.strategy())) {
+                    continue;
+                }
+                var metric = threshold.substring(separator + 1);
+                var limit = Double.parseDouble(thresholds.getProperty(threshold));
+                check(summary, metric, limit, "threshold " + threshold, violations);
+            }
+        }
+        var baselineSummaries = byStrategy(baseline);
+        for (var summary : summaries) {
+            var baselineSummary = baselineSummaries.get(summary.strategy());
+            if (baselineSummary == null) {
+                continue;
+            }
+            for (var latency : BASELINE_LATENCIES) {
+                check(summary, latency, baselineSummary.metric(latency) * (1 + tolerance), "baseline", violations);
+            }
+            check(summary, THROUGHPUT, baselineSummary.throughput() * (1 - tolerance), "baseline", violations);
+        }
+        return violations;
+    }
+
+    private static void check(StrategySummary summary, String metric, double limit, String source, List<String> violations) {
+        var value = summary.metric(metric);
+        var violated = metric.equals(THROUGHPUT) ? value < limit : value > limit;
+        if (violated) {
+            violations.add(String.format("%s %s is %.3f, %s of %s is %.3f",
+                    summary.strategy(), metric, value, metric.equals(THROUGHPUT) ? "minimum" : "maximum", source, limit));
+        }
+    }
+
+    static Properties readThresholds(String location) {
+        var thresholds = new Properties();
+        var resource = new DefaultResourceLoader().getResource(location);
+        try (InputStream input = resource.getInputStream()) {
+            thresholds.load(input);
+        } catch (IOException unreadable) {
+            throw new UncheckedIOException("Unable to read load test thresholds from " + location, unreadable);
+        }
+        return thresholds;
+    }
+
+    private static Map<String, StrategySummary> byStrategy(List<StrategySummary> summaries) {
+        return summaries.stream().collect(Collectors.toMap(StrategySummary::strategy, Function.identity()));
+    }
+}
@@ -0,0 +1,51 @@
+package de.nubisoft.backend.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+
+/**
+ * Latency and throughput of one strategy, as written to and read from {@value LoadReport#SUMMARY_FILE}.
+ *
+ * @param throughput successful requests per second
+ */
+record StrategySummary(String strategy, long requests, long errors, double throughput, double p50Millis,
+                       double p90Millis, double p99Millis, double p999Millis, double maxMillis) {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    static StrategySummary of(String strategy, LoadGenerator.StrategyResults results, Duration duration) {
+        Histogram latencies = results.latencies();
+        var requests = latencies.getTotalCount() + results.errors();
+        return new StrategySummary(strategy, requests, results.errors(),
+                latencies.getTotalCount() / (duration.toNanos() / 1_000_000_000.0),
+                millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                millis(latencies.getMaxValue()));
+    }
+
+    double errorRate() {
+        return requests == 0 ? 0 : (double) errors / requests;
+    }
+
+    /**
+     * @param name one of {@code p50}, {@code p90}, {@code p99}, {@code p999}, {@code max} (milliseconds),
+     *             {@code errorRate} or {@code throughput}
+     */
+    double metric(String name) {
+        return switch (name) {
+            case "p50" -> p50Millis;
+            case "p90" -> p90Millis;
+            case "p99" -> p99Millis;
+            case "p999" -> p999Millis;
+            case "max" -> maxMillis;
+            case "errorRate" -> errorRate();
+            case "throughput" -> throughput;
+            default -> throw new IllegalArgumentException("Unknown metric " + name);
+        };
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
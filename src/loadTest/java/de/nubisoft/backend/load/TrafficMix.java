@@ -0,0 +1,88 @@
+package de.nubisoft.backend.load;
+
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.random.RandomGenerator;
+
+/**
+ * Mix of documents requests: the strategy (endpoint version) is picked by its weight, the doctor uniformly and the
+ * patient of the doctor by a Zipf distribution over the doctor's patients, in order of the patients file.
+ */
+final class TrafficMix {
+
+    /**
+     * @param strategy documents endpoint version, e.g. {@code v3}
+     * @param path     path of the request
+     * @param doctorId logged doctor
+     */
+    record Request(String strategy, String path, String doctorId) {
+
+        String userToken() {
+            return doctorId + ".auth_token_for_user_" + doctorId;
+        }
+    }
+
+    private final String[] weightedStrategies;
+
+    private final List<String> doctors;
+
+    private final Map<String, List<String>> patientsByDoctor;
+
+    private final Map<String, ZipfDistribution> patientDistributions = new LinkedHashMap<>();
+
+    TrafficMix(Map<String, Integer> strategies, List<String> doctors, Map<String, List<String>> patientsByDoctor,
+               double zipfExponent) {
+        this.weightedStrategies = strategies.entrySet().stream()
+                .flatMap(strategy -> Collections.nCopies(strategy.getValue(), strategy.getKey()).stream())
+                .toArray(String[]::new);
+        this.doctors = List.copyOf(doctors);
+        this.patientsByDoctor = patientsByDoctor;
+        for (var doctorId : doctors) {
+            var patients = patientsByDoctor.getOrDefault(doctorId, List.of());
+            if (patients.isEmpty()) {
+                throw new IllegalArgumentException("Doctor " + doctorId + " has no patients");
+            }
+            patientDistributions.put(doctorId, new ZipfDistribution(patients.size(), zipfExponent));
+        }
+    }
+
+    Request next(RandomGenerator random) {
+        var strategy = weightedStrategies[random.nextInt(weightedStrategies.length)];
+        var doctorId = doctors.get(random.nextInt(doctors.size()));
+        var patientId = patientsByDoctor.get(doctorId).get(patientDistributions.get(doctorId).sample(random));
+        return new Request(strategy, "/patients/" + patientId + "/documents/" + strategy, doctorId);
+    }
+
+    /**
+     * Reads patients of every doctor from a CSV resource in the format of the patient directory.
+     */
+    static Map<String, List<String>> readPatients(String location) {
+        var patientsByDoctor = new LinkedHashMap<String, List<String>>();
+        var resource = new DefaultResourceLoader().getResource(location);
+        try (var reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.charAt(0) == '#' || line.equals("doctorId,patientId")) {
+                    continue;
+                }
+                var separator = line.indexOf(',');
+                patientsByDoctor.computeIfAbsent(line.substring(0, separator).strip(), doctorId -> new ArrayList<>())
+                        .add(line.substring(separator + 1).strip());
+            }
+        } catch (IOException unreadable) {
+            throw new UncheckedIOException("Unable to read patients from " + location, unreadable);
+        }
+        return patientsByDoctor;
+    }
+}
@@ -0,0 +1,39 @@
+package de.nubisoft.backend.load;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Zipf distribution over ranks {@code 0..size-1}: rank {@code k} is drawn with probability proportional to
+ * {@code 1 / (k + 1)^exponent}, so a few top ranks get most of the draws. Exponent 0 is the uniform distribution.
+ * <p>
+ * The cumulative distribution is precomputed, a draw is a binary search.
+ */
+final class ZipfDistribution {
+
+    private final double[] cumulativeProbabilities;
+
+    ZipfDistribution(int size, double exponent) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size has to be positive, was " + size);
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("Exponent cannot be negative, was " + exponent);
+        }
+        cumulativeProbabilities = new double[size];
+        var sum = 0.0;
+        for (int rank = 0; rank < size; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulativeProbabilities[rank] = sum;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            cumulativeProbabilities[rank] /= sum;
+        }
+    }
+
+    int sample(RandomGenerator random) {
+        var rank = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        // Insertion point of the drawn value is the first rank whose cumulative probability exceeds it
+        return Math.min(rank < 0 ? -rank - 1 : rank, cumulativeProbabilities.length - 1);
+    }
+}
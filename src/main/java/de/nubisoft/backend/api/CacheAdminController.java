@@ -0,0 +1,91 @@
+package de.nubisoft.backend.api;
+
+import de.nubisoft.backend.configuration.InvalidationProperties;
+import de.nubisoft.backend.exception.ForbiddenException;
+import de.nubisoft.backend.service.CacheInvalidationService;
+import de.nubisoft.backend.service.LoginService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Eviction and refresh of cached patient documents in all tiers on all pods, available to users listed in
+ * {@code caching.invalidation.admins} only.
+ * <p>
+ * Evictions are done when the response is sent, refreshes are started in the background. When Redis is not
+ * available, the Redis tiers are skipped and the response is 503 Service Unavailable: the call should be retried.
+ */
+@RequestMapping("/admin/caches")
+@RestController
+public class CacheAdminController {
+
+    private final CacheInvalidationService cacheInvalidationService;
+
+    private final LoginService loginService;
+
+    private final Set<String> admins;
+
+    @Autowired
+    public CacheAdminController(CacheInvalidationService cacheInvalidationService, LoginService loginService,
+                                InvalidationProperties invalidationProperties) {
+        this.cacheInvalidationService = cacheInvalidationService;
+        this.loginService = loginService;
+        this.admins = Set.copyOf(invalidationProperties.admins());
+    }
+
+    @GetMapping
+    List<String> getCacheNames() {
+        requireAdmin();
+        return this.cacheInvalidationService.cacheNames();
+    }
+
+    @DeleteMapping("/{cacheName}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    void evictCache(@PathVariable String cacheName) {
+        requireAdmin();
+        this.cacheInvalidationService.evictCache(cacheName);
+    }
+
+    @DeleteMapping("/patients/{patientId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    void evictPatient(@PathVariable String patientId) {
+        requireAdmin();
+        this.cacheInvalidationService.evictPatient(patientId);
+    }
+
+    @PostMapping("/patients/{patientId}/refresh")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    void refreshPatient(@PathVariable String patientId) {
+        requireAdmin();
+        this.cacheInvalidationService.refreshPatient(patientId);
+    }
+
+    @DeleteMapping("/doctors/{doctorId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    void evictDoctorPatients(@PathVariable String doctorId) {
+        requireAdmin();
+        this.cacheInvalidationService.evictDoctorPatients(doctorId);
+    }
+
+    @PostMapping("/doctors/{doctorId}/refresh")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    void refreshDoctorPatients(@PathVariable String doctorId) {
+        requireAdmin();
+        this.cacheInvalidationService.refreshDoctorPatients(doctorId);
+    }
+
+    private void requireAdmin() {
+        if (!admins.contains(this.loginService.getLoggedDoctorId())) {
+            throw new ForbiddenException();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package de.nubisoft.backend.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import de.nubisoft.backend.cache.DocumentRef;
+import de.nubisoft.backend.cache.MemoryAwareCaches;
+import de.nubisoft.backend.configuration.HttpCachingProperties;
+import de.nubisoft.backend.domain.PatientDocumentRefs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP caching of streamed documents responses (the {@code /stream} and bulk endpoints). The JSON
+ * {@code /patients/{id}/documents/vN} endpoints are not covered, they are serialized by Spring MVC as they were.
+ * <p>
+ * The ETag is derived from the cache entries the response is written from: the patients and the references of their
+ * documents, whose chunk hashes are content hashes of the shared (large) content. Content kept inline in a reference
+ * (not matching any shared chunk) is represented by its length and {@link String#hashCode()}, which every string
+ * computes once and caches. So only a few kB are hashed per request instead of the whole response, and the ETag
+ * changes whenever a cache entry is reloaded. The ETag is weak, as the same version is served both as identity and
+ * gzip encoded.
+ * <p>
+ * On a miss, the response is compressed while it is streamed to the client, on the thread writing the response, and a
+ * copy is kept per ETag when it is not larger than the configured maximum. The copies are kept within a budget of
+ * {@link MemoryAwareCaches}, so repeated reads of a cache entry are compressed once. Entries of previous versions
+ * are not used anymore and are evicted first.
+ */
+@Component
+class PatientDocumentsHttpCache {
+
+    static final String GZIP = "gzip";
+    private static final String ANY_ENCODING = "*";
+
+    private static final byte SEPARATOR = 0;
+
+    private static final String CACHE_NAME = "patient-documents-gzipped";
+
+    private final int gzipLevel;
+
+    private final int maxCompressedEntryBytes;
+
+    private final Cache<String, byte[]> gzippedResponses;
+
+    @Autowired
+    PatientDocumentsHttpCache(HttpCachingProperties properties, MemoryAwareCaches memoryAwareCaches) {
+        if (properties.gzipLevel() < 1 || properties.gzipLevel() > 9) {
+            throw new IllegalArgumentException("Gzip level has to be between 1 and 9, was " + properties.gzipLevel());
+        }
+        this.gzipLevel = properties.gzipLevel();
+        this.maxCompressedEntryBytes = (int) Math.min(Integer.MAX_VALUE, properties.maxCompressedEntry().toBytes());
+        this.gzippedResponses = memoryAwareCaches.build(CACHE_NAME, properties.compressedBudget().toBytes(),
+                (String eTag, byte[] gzipped) -> 64 + 2 * eTag.length() + gzipped.length,
+                caffeine -> caffeine.build());
+    }
+
+    /**
+     * @return weak ETag of the response written from the documents of the patients
+     */
+    String eTag(List<PatientDocumentRefs> patientsDocuments) {
+        var digest = sha256();
+        for (PatientDocumentRefs patientDocuments : patientsDocuments) {
+            update(digest, patientDocuments.patient().doctorId());
+            update(digest, patientDocuments.patient().patientId());
+            for (DocumentRef document : patientDocuments.documents()) {
+                updateInline(digest, document.prefix());
+                update(digest, document.chunkHash());
+                updateInline(digest, document.suffix());
+            }
+            digest.update(SEPARATOR);
+        }
+        return "W/\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+
+    /**
+     * @return the gzip compressed response of the version, {@code null} when it is not kept
+     */
+    byte[] gzipped(String eTag) {
+        return gzippedResponses.getIfPresent(eTag);
+    }
+
+    /**
+     * @return the response compressed while it is written, keeping a copy of the compressed version when it is not
+     * too large
+     */
+    StreamingResponseBody gzipping(String eTag, StreamingResponseBody body) {
+        return output -> {
+            var copying = new CopyingOutputStream(output, maxCompressedEntryBytes);
+            try (OutputStream gzip = new LeveledGZIPOutputStream(copying, gzipLevel)) {
+                body.writeTo(gzip);
+            }
+            var gzipped = copying.copy();
+            if (gzipped != null) {
+                gzippedResponses.put(eTag, gzipped);
+            }
+        };
+    }
+
+    /**
+     * @return whether gzip is accepted, according to the {@code Accept-Encoding} header
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        var accepted = false;
+        for (String coding : acceptEncoding.split(",")) {
+            var parameters = coding.split(";");
+            var name = parameters[0].trim();
+            if (name.equalsIgnoreCase(GZIP)) {
+                // Explicit gzip preference overrides the wildcard one
+                return !isRefused(parameters);
+            }
+            if (name.equals(ANY_ENCODING)) {
+                accepted = !isRefused(parameters);
+            }
+        }
+        return accepted;
+    }
+
+    private static boolean isRefused(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            var parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update(SEPARATOR);
+    }
+
+    private static void updateInline(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(value.length()).putInt(value.hashCode()).array());
+        }
+        digest.update(SEPARATOR);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Passes written bytes on and keeps a copy of them, dropped once it would exceed the limit. Does not close the
+     * output, which is owned by the caller.
+     */
+    private static final class CopyingOutputStream extends FilterOutputStream {
+
+        private final int limit;
+
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        private CopyingOutputStream(OutputStream output, int limit) {
+            super(output);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            copy(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            copy(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * @return all written bytes, {@code null} when there were more of them than the limit
+         */
+        byte[] copy() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        private void copy(byte[] bytes, int offset, int length) {
+            if (copy == null) {
+                return;
+            }
+            if (copy.size() + length > limit) {
+                copy = null;
+                return;
+            }
+            copy.write(bytes, offset, length);
+        }
+    }
+
+    private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        private LeveledGZIPOutputStream(OutputStream output, int level) throws IOException {
+            super(output, 64 * 1024);
+            def.setLevel(level);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.nubisoft.backend.api;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.nubisoft.backend.cache.DocumentChunkStore;
+import de.nubisoft.backend.cache.DocumentRef;
+import de.nubisoft.backend.domain.PatientDocumentRefs;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes {@link PatientDocumentRefs} as JSON (same shape as {@code PatientDocumentsResponse}), or a JSON array of
+ * them, incrementally, without materializing the documents.
+ * <p>
+ * Shared chunks are JSON-encoded once and kept in direct (off-heap) buffers, which are written to the response
+ * through a small fixed transfer buffer. Only per document prefixes and suffixes are encoded per request.
+ */
+@Component
+class PatientDocumentsStreamingWriter {
+
+    private static final byte[] PATIENT_START = ascii("{\"patient\":{\"doctorId\":\"");
+    private static final byte[] PATIENT_ID_START = ascii("\",\"patientId\":\"");
+    private static final byte[] DOCUMENTS_START = ascii("\"},\"documents\":[");
+    private static final byte[] DOCUMENTS_END = ascii("]}");
+
+    private static final int ARRAY_START = '[';
+    private static final int ARRAY_END = ']';
+
+    private static final int QUOTE = '"';
+    private static final int COMMA = ',';
+
+    private final DocumentChunkStore chunkStore;
+
+    private final Cache<String, ByteBuffer> encodedChunks = Caffeine.newBuilder()
+            .maximumSize(16)
+            .build();
+
+    @Autowired
+    PatientDocumentsStreamingWriter(DocumentChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
+    void write(PatientDocumentRefs patientDocuments, OutputStream output) throws IOException {
+        writeObject(patientDocuments, output);
+        output.flush();
+    }
+
+    void write(List<PatientDocumentRefs> patientsDocuments, OutputStream output) throws IOException {
+        output.write(ARRAY_START);
+        var first = true;
+        for (PatientDocumentRefs patientDocuments : patientsDocuments) {
+            if (!first) {
+                output.write(COMMA);
+            }
+            first = false;
+            writeObject(patientDocuments, output);
+        }
+        output.write(ARRAY_END);
+        output.flush();
+    }
+
+    private void writeObject(PatientDocumentRefs patientDocuments, OutputStream output) throws IOException {
+        var chunkChannel = Channels.newChannel(output);
+        output.write(PATIENT_START);
+        output.write(encode(patientDocuments.patient().doctorId()));
+        output.write(PATIENT_ID_START);
+        output.write(encode(patientDocuments.patient().patientId()));
+        output.write(DOCUMENTS_START);
+        var first = true;
+        for (DocumentRef document : patientDocuments.documents()) {
+            if (!first) {
+                output.write(COMMA);
+            }
+            first = false;
+            output.write(QUOTE);
+            output.write(encode(document.prefix()));
+            if (!document.isInline()) {
+                var chunk = encodedChunk(document.chunkHash()).duplicate();
+                while (chunk.hasRemaining()) {
+                    chunkChannel.write(chunk);
+                }
+            }
+            output.write(encode(document.suffix()));
+            output.write(QUOTE);
+        }
+        output.write(DOCUMENTS_END);
+    }
+
+    private ByteBuffer encodedChunk(String chunkHash) {
+        return encodedChunks.get(chunkHash, hash -> {
+            var encoded = encode(chunkStore.resolve(hash));
+            return ByteBuffer.allocateDirect(encoded.length)
+                    .put(encoded)
+                    .flip()
+                    .asReadOnlyBuffer();
+        });
+    }
+
+    private static byte[] encode(String value) {
+        return JsonStringEncoder.getInstance().quoteAsUTF8(value);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
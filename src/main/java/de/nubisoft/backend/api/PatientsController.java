@@ -1,23 +1,49 @@
 package de.nubisoft.backend.api;
 
 
+import de.nubisoft.backend.configuration.SecurityFilter;
+import de.nubisoft.backend.domain.PatientDocumentRefs;
 import de.nubisoft.backend.domain.PatientDocumentsResponse;
 import de.nubisoft.backend.service.PatientsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 @RestController
 @RequestMapping("/patients")
 public class PatientsController {
 
+    /**
+     * Responses may be stored only by the client of the logged doctor, and have to be revalidated on every use, as
+     * access to the patient is checked before 304 is answered.
+     */
+    private static final CacheControl DOCUMENTS_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
     private final PatientsService patientsService;
 
+    private final PatientDocumentsStreamingWriter streamingWriter;
+
+    private final PatientDocumentsHttpCache httpCache;
+
     @Autowired
-    public PatientsController(PatientsService patientsService) {
+    public PatientsController(PatientsService patientsService, PatientDocumentsStreamingWriter streamingWriter,
+                              PatientDocumentsHttpCache httpCache) {
         this.patientsService = patientsService;
+        this.streamingWriter = streamingWriter;
+        this.httpCache = httpCache;
     }
 
     @GetMapping("/{id}/documents/v1")
@@ -35,11 +61,40 @@ public class PatientsController {
         return this.patientsService.getPatientDocumentsV3(id);
     }
 
+    @GetMapping("/{id}/documents/v3/stream")
+    ResponseEntity<StreamingResponseBody> streamPatientDocumentsV3(@PathVariable String id, WebRequest request) {
+        return stream(this.patientsService.getPatientDocumentRefsV3(id), request);
+    }
+
+    /**
+     * Documents of many patients (all patients of the logged doctor when no ids are given) in one request,
+     * streamed as a JSON array.
+     */
+    @GetMapping("/documents/v3")
+    ResponseEntity<StreamingResponseBody> streamPatientsDocumentsV3(@RequestParam(required = false) List<String> ids,
+                                                                 WebRequest request) {
+        return stream(this.patientsService.getPatientDocumentRefsV3(ids), request);
+    }
+
     @GetMapping("/{id}/documents/v4")
     PatientDocumentsResponse getPatientDocumentsV4(@PathVariable String id) {
         return this.patientsService.getPatientDocumentsV4(id);
     }
 
+    @GetMapping("/{id}/documents/v4/stream")
+    ResponseEntity<StreamingResponseBody> streamPatientDocumentsV4(@PathVariable String id, WebRequest request) {
+        return stream(this.patientsService.getPatientDocumentRefsV4(id), request);
+    }
+
+    /**
+     * Same as {@link #streamPatientsDocumentsV3(List, WebRequest)}, cached in V4 implementation.
+     */
+    @GetMapping("/documents/v4")
+    ResponseEntity<StreamingResponseBody> streamPatientsDocumentsV4(@RequestParam(required = false) List<String> ids,
+                                                                 WebRequest request) {
+        return stream(this.patientsService.getPatientDocumentRefsV4(ids), request);
+    }
+
     @GetMapping("/{id}/documents/v5")
     PatientDocumentsResponse getPatientDocumentsV5(@PathVariable String id) {
         return this.patientsService.getPatientDocumentsV5(id);
@@ -55,4 +110,50 @@ public class PatientsController {
     PatientDocumentsResponse getPatientDocumentsV7(@PathVariable String id) {
         return this.patientsService.getPatientDocumentsV7(id);
     }
+
+    @GetMapping("/{id}/documents/v8")
+    Mono<PatientDocumentsResponse> getPatientDocumentsV8(@PathVariable String id) {
+        return this.patientsService.getPatientDocumentsV8(id);
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(PatientDocumentRefs patientDocuments, WebRequest request) {
+        return stream(List.of(patientDocuments), output -> this.streamingWriter.write(patientDocuments, output), request);
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(List<PatientDocumentRefs> patientsDocuments, WebRequest request) {
+        return stream(patientsDocuments, output -> this.streamingWriter.write(patientsDocuments, output), request);
+    }
+
+    /**
+     * Streams the response, answers {@code 304 Not Modified} when the client has the current version (ETag) already
+     * and sends the compressed version of the response to clients accepting gzip. Used by the streamed endpoints only,
+     * the JSON ones are not cached by clients.
+     */
+    private ResponseEntity<StreamingResponseBody> stream(List<PatientDocumentRefs> patientsDocuments, StreamingResponseBody body,
+                                                         WebRequest request) {
+        var eTag = this.httpCache.eTag(patientsDocuments);
+        if (request.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .cacheControl(DOCUMENTS_CACHE_CONTROL)
+                    .varyBy(SecurityFilter.USER_TOKEN_HEADER_NAME, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        var response = ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(DOCUMENTS_CACHE_CONTROL)
+                .varyBy(SecurityFilter.USER_TOKEN_HEADER_NAME, HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (PatientDocumentsHttpCache.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            response.header(HttpHeaders.CONTENT_ENCODING, PatientDocumentsHttpCache.GZIP);
+            var gzipped = this.httpCache.gzipped(eTag);
+            if (gzipped != null) {
+                return response
+                        .contentLength(gzipped.length)
+                        .body(output -> output.write(gzipped));
+            }
+            return response.body(this.httpCache.gzipping(eTag, body));
+        }
+        return response.body(body);
+    }
 }
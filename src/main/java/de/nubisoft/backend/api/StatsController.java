@@ -1,20 +1,120 @@
 package de.nubisoft.backend.api;
 
+import de.nubisoft.backend.cache.MemoryAwareCaches;
+import de.nubisoft.backend.domain.CacheStats;
+import de.nubisoft.backend.domain.LatencyStats;
 import de.nubisoft.backend.domain.Stats;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Heap, cache and latency statistics of the pod, a human readable digest of the meters scraped from
+ * {@code /actuator/prometheus}.
+ */
 @RequestMapping("/stats")
 @RestController
 public class StatsController {
 
+    private static final List<String> LATENCY_TIMERS = List.of(
+            "http.server.requests", "patient.documents.fetch", "cache.load", "lettuce.command.completion");
+
+    private final MemoryAwareCaches memoryAwareCaches;
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public StatsController(MemoryAwareCaches memoryAwareCaches, MeterRegistry meterRegistry) {
+        this.memoryAwareCaches = memoryAwareCaches;
+        this.meterRegistry = meterRegistry;
+    }
+
     @GetMapping
     Stats getStats() {
         return new Stats(
                 Runtime.getRuntime().totalMemory() / 1000000,
                 Runtime.getRuntime().maxMemory() / 1000000,
-                Runtime.getRuntime().freeMemory() / 1000000
+                Runtime.getRuntime().freeMemory() / 1000000,
+                memoryAwareCaches.getStats(),
+                getCacheStats(),
+                getLatencyStats()
         );
     }
+
+    private List<CacheStats> getCacheStats() {
+        var cacheNames = meterRegistry.find("cache.gets").meters().stream()
+                .map(meter -> meter.getId().getTag("cache"))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(TreeSet::new));
+        return cacheNames.stream()
+                .map(cacheName -> {
+                    var loads = meterRegistry.find("cache.load").tag("cache", cacheName).timers();
+                    var loadCount = loads.stream().mapToLong(Timer::count).sum();
+                    var loadTotalMillis = loads.stream().mapToDouble(timer -> timer.totalTime(TimeUnit.MILLISECONDS)).sum();
+                    return new CacheStats(cacheName,
+                            count(meterRegistry.find("cache.gets").tag("cache", cacheName).tag("result", "hit").meters()),
+                            count(meterRegistry.find("cache.gets").tag("cache", cacheName).tag("result", "miss").meters()),
+                            count(meterRegistry.find("cache.evictions").tag("cache", cacheName).meters()),
+                            count(meterRegistry.find("cache.size").tag("cache", cacheName).meters()),
+                            count(meterRegistry.find("cache.weighted.size").tag("cache", cacheName).meters()),
+                            loadCount,
+                            loadCount == 0 ? null : loadTotalMillis / loadCount);
+                })
+                .toList();
+    }
+
+    private List<LatencyStats> getLatencyStats() {
+        return LATENCY_TIMERS.stream()
+                .flatMap(name -> meterRegistry.find(name).timers().stream())
+                .map(timer -> {
+                    var snapshot = timer.takeSnapshot();
+                    return new LatencyStats(timer.getId().getName(),
+                            timer.getId().getTags().stream()
+                                    .map(tag -> tag.getKey() + "=" + tag.getValue())
+                                    .collect(Collectors.joining(",")),
+                            snapshot.count(),
+                            snapshot.mean(TimeUnit.MILLISECONDS),
+                            percentile(snapshot.percentileValues(), 0.5),
+                            percentile(snapshot.percentileValues(), 0.99),
+                            percentile(snapshot.percentileValues(), 0.999),
+                            snapshot.max(TimeUnit.MILLISECONDS));
+                })
+                .toList();
+    }
+
+    /**
+     * Sum of the first measurement (count of counters, value of gauges) of given meters, {@code null} when there are
+     * none or none has a value (e.g. gauges of Redis caches while Redis is not available).
+     */
+    private static Long count(Collection<Meter> meters) {
+        var values = meters.stream()
+                .flatMap(meter -> StreamSupport.stream(meter.measure().spliterator(), false).limit(1))
+                .mapToDouble(Measurement::getValue)
+                .filter(value -> !Double.isNaN(value))
+                .toArray();
+        return values.length == 0 ? null : Arrays.stream(values).mapToLong(value -> (long) value).sum();
+    }
+
+    private static Double percentile(ValueAtPercentile[] percentiles, double percentile) {
+        return Arrays.stream(percentiles)
+                .filter(value -> value.percentile() == percentile)
+                .map(value -> value.value(TimeUnit.MILLISECONDS))
+                .findFirst()
+                .orElse(null);
+    }
 }
@@ -0,0 +1,111 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters of a cache which is not instrumented by Micrometer itself (Redis backed caches).
+ * <p>
+ * Meters are named and tagged like Micrometer's cache meters ({@code cache.gets}, {@code cache.evictions}), so all
+ * caches are reported uniformly. Load time ({@code cache.load}) and size of written values ({@code cache.value.bytes})
+ * are recorded on top of that. Size gauges ({@code cache.size}, {@code cache.weighted.size}) are registered by
+ * {@link #registerRedisSize(RedisKeyIndex)}.
+ */
+public class CacheMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final String cacheName;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    private final Timer successfulLoads;
+
+    private final Timer failedLoads;
+
+    private final DistributionSummary valueBytes;
+
+    public CacheMetrics(MeterRegistry meterRegistry, String cacheName) {
+        this.meterRegistry = meterRegistry;
+        this.cacheName = cacheName;
+        this.hits = Counter.builder("cache.gets").tag("cache", cacheName).tag("result", "hit")
+                .description("Number of cache hits").register(meterRegistry);
+        this.misses = Counter.builder("cache.gets").tag("cache", cacheName).tag("result", "miss")
+                .description("Number of cache misses").register(meterRegistry);
+        this.evictions = Counter.builder("cache.evictions").tag("cache", cacheName)
+                .description("Number of explicit evictions").register(meterRegistry);
+        this.successfulLoads = Timer.builder("cache.load").tag("cache", cacheName).tag("result", "success")
+                .description("Time of loading missing values").register(meterRegistry);
+        this.failedLoads = Timer.builder("cache.load").tag("cache", cacheName).tag("result", "failure")
+                .description("Time of loading missing values").register(meterRegistry);
+        this.valueBytes = DistributionSummary.builder("cache.value.bytes").tag("cache", cacheName).baseUnit("bytes")
+                .description("Size of serialized values written to the cache").register(meterRegistry);
+    }
+
+    /**
+     * Executes the lookup, counting a hit when it returns a value and a miss otherwise.
+     */
+    public <T> T lookup(Supplier<T> lookup) {
+        var value = lookup.get();
+        (value != null ? hits : misses).increment();
+        return value;
+    }
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Executes the loader, recording its time.
+     */
+    public <T> T load(Supplier<T> loader) {
+        var start = System.nanoTime();
+        try {
+            var value = loader.get();
+            successfulLoads.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return value;
+        } catch (RuntimeException | Error failure) {
+            failedLoads.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw failure;
+        }
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordValueBytes(int bytes) {
+        valueBytes.record(bytes);
+    }
+
+    /**
+     * Registers size gauges of a cache whose keys are indexed by the key index: the number of indexed keys, and that
+     * number times the mean size of values written by this pod as an estimate of the size in bytes. Both are read from
+     * Redis when scraped and are not reported while it is not available.
+     */
+    public void registerRedisSize(RedisKeyIndex keyIndex) {
+        Gauge.builder("cache.size", keyIndex, it -> it.size(cacheName))
+                .tag("cache", cacheName)
+                .description("Number of keys in the Redis index of the cache")
+                .register(meterRegistry);
+        Gauge.builder("cache.weighted.size", keyIndex, it -> it.size(cacheName) * valueBytes.mean())
+                .tag("cache", cacheName)
+                .baseUnit("bytes")
+                .description("Estimated size of cached entries")
+                .register(meterRegistry);
+    }
+}
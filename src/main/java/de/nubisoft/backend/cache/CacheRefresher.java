@@ -0,0 +1,104 @@
+package de.nubisoft.backend.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh-ahead (stale-while-revalidate) support for caches.
+ * <p>
+ * An entry older than the soft TTL ({@code softTtlRatio} of its TTL) is still served, but its reload is started in
+ * the background, so callers do not wait for the slow load when the entry expires. The TTL itself stays the hard
+ * limit of staleness: an entry which is not accessed between the soft and hard TTL expires and is loaded as usual.
+ * <p>
+ * Refreshes run on a small bounded pool, with the security context of the request which triggered them. When the
+ * pool is saturated the refresh is skipped, the entry is then loaded when it expires. A key is refreshed by at most
+ * one task of the pod at a time, coalescing across pods is up to the refresh itself (see {@link SingleFlight}).
+ */
+@Slf4j
+public class CacheRefresher implements DisposableBean {
+
+    private final double softTtlRatio;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    public CacheRefresher(double softTtlRatio, int threads, int queueCapacity) {
+        if (softTtlRatio <= 0 || softTtlRatio > 1) {
+            throw new IllegalArgumentException("Soft TTL ratio has to be within (0, 1], was " + softTtlRatio);
+        }
+        this.softTtlRatio = softTtlRatio;
+        var threadFactory = new CustomizableThreadFactory("cache-refresh-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Age after which an entry with given TTL is refreshed.
+     */
+    public Duration softTimeToLive(Duration timeToLive) {
+        return Duration.ofMillis((long) (timeToLive.toMillis() * softTtlRatio));
+    }
+
+    /**
+     * @param remainingMillis remaining TTL of the entry, negative when unknown or when the entry does not expire
+     * @param timeToLive      TTL the entry was written with
+     */
+    public boolean isStale(long remainingMillis, Duration timeToLive) {
+        return remainingMillis >= 0 && timeToLive.toMillis() - remainingMillis >= softTimeToLive(timeToLive).toMillis();
+    }
+
+    /**
+     * Starts the refresh in the background, with the security context of the caller, unless the key is already
+     * being refreshed.
+     *
+     * @param key     globally unique key of the entry, e.g. cache name followed by the cache key
+     * @param refresh reloads the entry and stores it in the cache
+     * @return whether the entry is being refreshed, {@code false} when the refresh is skipped as the pool is saturated
+     */
+    public boolean refresh(String key, Runnable refresh) {
+        if (!refreshing.add(key)) {
+            return true;
+        }
+        try {
+            executor.execute(new DelegatingSecurityContextRunnable(() -> {
+                try {
+                    refresh.run();
+                } catch (RuntimeException failure) {
+                    log.warn("Background refresh of {} failed, stale value is served until it expires", key, failure);
+                } finally {
+                    refreshing.remove(key);
+                }
+            }));
+            return true;
+        } catch (RejectedExecutionException saturated) {
+            refreshing.remove(key);
+            log.debug("Skipping background refresh of {}, refresh pool is saturated", key);
+            return false;
+        }
+    }
+
+    /**
+     * Executor of refresh loads of Caffeine caches ({@code refreshAfterWrite}).
+     */
+    public Executor executor() {
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
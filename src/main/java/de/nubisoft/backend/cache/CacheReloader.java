@@ -0,0 +1,16 @@
+package de.nubisoft.backend.cache;
+
+/**
+ * Reloads an entry of a cache outside of the call which read it, e.g. to refresh it ahead of its expiration.
+ * Registered per cache in {@link NearCacheManager}.
+ */
+@FunctionalInterface
+public interface CacheReloader {
+
+    /**
+     * @param key      cache key of the entry
+     * @param oldValue currently cached value
+     * @return reloaded value
+     */
+    Object reload(Object key, Object oldValue);
+}
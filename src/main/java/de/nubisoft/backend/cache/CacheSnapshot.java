@@ -0,0 +1,95 @@
+package de.nubisoft.backend.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of local cache entries (already serialized) and of the hottest keys, written on shutdown and read on
+ * startup.
+ * <p>
+ * Format: magic, format version, write timestamp, hot keys, entries (cache name, key, age, value).
+ * The file is written to a temporary file first and then moved, so a crash never leaves a truncated snapshot behind.
+ *
+ * @param writtenAt epoch millis when the snapshot was taken
+ * @param hotKeys   most frequently accessed keys, hottest first
+ * @param entries   cache entries
+ */
+public record CacheSnapshot(long writtenAt, List<String> hotKeys, List<Entry> entries) {
+
+    private static final int MAGIC = 0xCAC4E5AB;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * @param cacheName  name of the cache the entry belongs to
+     * @param key        cache key
+     * @param ageMillis  age of the entry when the snapshot was taken
+     * @param value      serialized value
+     */
+    public record Entry(String cacheName, String key, long ageMillis, byte[] value) {
+    }
+
+    public void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        var temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(writtenAt);
+            output.writeInt(hotKeys.size());
+            for (var hotKey : hotKeys) {
+                output.writeUTF(hotKey);
+            }
+            output.writeInt(entries.size());
+            for (var entry : entries) {
+                output.writeUTF(entry.cacheName());
+                output.writeUTF(entry.key());
+                output.writeLong(entry.ageMillis());
+                output.writeInt(entry.value().length);
+                output.write(entry.value());
+            }
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @throws IOException when the file cannot be read or is not a snapshot of the supported format
+     */
+    public static CacheSnapshot read(Path file) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(file + " is not a cache snapshot");
+            }
+            var formatVersion = input.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported cache snapshot format version " + formatVersion);
+            }
+            var writtenAt = input.readLong();
+            var hotKeysCount = input.readInt();
+            var hotKeys = new ArrayList<String>(hotKeysCount);
+            for (int i = 0; i < hotKeysCount; i++) {
+                hotKeys.add(input.readUTF());
+            }
+            var entriesCount = input.readInt();
+            var entries = new ArrayList<Entry>(entriesCount);
+            for (int i = 0; i < entriesCount; i++) {
+                var cacheName = input.readUTF();
+                var key = input.readUTF();
+                var ageMillis = input.readLong();
+                var value = new byte[input.readInt()];
+                input.readFully(value);
+                entries.add(new Entry(cacheName, key, ageMillis, value));
+            }
+            return new CacheSnapshot(writtenAt, hotKeys, entries);
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package de.nubisoft.backend.cache;
+
+import de.nubisoft.backend.domain.Patient;
+import de.nubisoft.backend.domain.PatientDocumentsResponse;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary {@link RedisSerializer} for cached document lists ({@code List<String>}), document reference lists
+ * ({@code List<DocumentRef>}) and {@link PatientDocumentsResponse}.
+ * <p>
+ * Format: magic (2 bytes), format version, codec (raw or deflate) followed by the body.
+ * Documents containing a chunk known to {@link DocumentChunkStore} are stored as a reference to the chunk (prefix,
+ * chunk hash, suffix). Chunks are not published by the serializer, writers have to call
+ * {@link DocumentChunkStore#publishRegistered()} before writing a serialized value to Redis. Other documents are
+ * stored as the number of characters shared with the previous document plus the remaining suffix, so repeated
+ * content is written once. The body is deflate compressed.
+ * <p>
+ * Values written in other formats (JSON, JDK serialization) are still read by the legacy serializer, which allows
+ * a mixed-format rollout: first deploy with compact writes disabled, then enable them.
+ * Values of other types are always written by the legacy serializer.
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte MAGIC_0 = (byte) 0xC5;
+    private static final byte MAGIC_1 = (byte) 0x7A;
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final byte CODEC_RAW = 0;
+    private static final byte CODEC_DEFLATE = 1;
+
+    private static final byte TYPE_DOCUMENTS = 1;
+    private static final byte TYPE_PATIENT_DOCUMENTS_RESPONSE = 2;
+    private static final byte TYPE_DOCUMENT_REFS = 3;
+
+    private static final byte ELEMENT_DELTA = 0;
+    private static final byte ELEMENT_CHUNK = 1;
+
+    private static final int HEADER_LENGTH = 4;
+
+    private static final int MIN_COMPRESSED_LENGTH = 1024;
+
+    private final RedisSerializer<Object> legacySerializer;
+
+    private final boolean writeCompact;
+
+    private final int compressionLevel;
+
+    private final DocumentChunkStore chunkStore;
+
+    private final IntConsumer serializedSizeListener;
+
+    public CompactRedisSerializer(RedisSerializer<Object> legacySerializer, boolean writeCompact, int compressionLevel,
+                                  DocumentChunkStore chunkStore) {
+        this(legacySerializer, writeCompact, compressionLevel, chunkStore, size -> {
+        });
+    }
+
+    /**
+     * @param legacySerializer       serializer of values in previous format and of unsupported types
+     * @param writeCompact           whether supported values are written in compact format (they are always read)
+     * @param compressionLevel       deflate level, from 1 (fastest) to 9 (smallest)
+     * @param chunkStore             store of shared document content, {@code null} to always write documents inline
+     * @param serializedSizeListener notified about size of every serialized value, in bytes
+     */
+    public CompactRedisSerializer(RedisSerializer<Object> legacySerializer, boolean writeCompact, int compressionLevel,
+                                  DocumentChunkStore chunkStore, IntConsumer serializedSizeListener) {
+        this.legacySerializer = legacySerializer;
+        this.writeCompact = writeCompact;
+        this.compressionLevel = compressionLevel;
+        this.chunkStore = chunkStore;
+        this.serializedSizeListener = serializedSizeListener;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        var bytes = serializeValue(value);
+        if (bytes != null) {
+            serializedSizeListener.accept(bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * Serializes document references, in compact format without materializing shared chunks. While compact writes are
+     * disabled, documents are assembled and written by the legacy serializer, as {@code List<String>}.
+     */
+    public byte[] serializeRefs(List<DocumentRef> refs) throws SerializationException {
+        if (!writeCompact && chunkStore != null) {
+            return serialize(chunkStore.assemble(refs));
+        }
+        return serialize(refs);
+    }
+
+    private byte[] serializeValue(Object value) {
+        if (!writeCompact || !isSupported(value)) {
+            return legacySerializer.serialize(value);
+        }
+        try {
+            var body = new ByteArrayOutputStream();
+            writeBody(body, value);
+            var output = new ByteArrayOutputStream(body.size() / 2 + HEADER_LENGTH);
+            output.write(new byte[]{MAGIC_0, MAGIC_1, FORMAT_VERSION});
+            if (body.size() < MIN_COMPRESSED_LENGTH) {
+                output.write(CODEC_RAW);
+                body.writeTo(output);
+            } else {
+                output.write(CODEC_DEFLATE);
+                var deflater = new Deflater(compressionLevel);
+                try (var compressed = new DeflaterOutputStream(output, deflater)) {
+                    body.writeTo(compressed);
+                } finally {
+                    deflater.end();
+                }
+            }
+            return output.toByteArray();
+        } catch (IOException unexpected) {
+            throw new SerializationException("Unable to serialize " + value.getClass().getName(), unexpected);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (!isCompact(bytes)) {
+            return legacySerializer.deserialize(bytes);
+        }
+        try (var input = openBody(bytes)) {
+            return readBody(input);
+        } catch (IOException corrupted) {
+            throw new SerializationException("Unable to deserialize compact value", corrupted);
+        }
+    }
+
+    /**
+     * Reads cached documents as references, without materializing shared chunks, e.g. to stream them to the client
+     * straight from Redis bytes. Documents in legacy format are returned as inline references.
+     */
+    @SuppressWarnings("unchecked")
+    public List<DocumentRef> deserializeRefs(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (!isCompact(bytes)) {
+            var value = legacySerializer.deserialize(bytes);
+            var documents = value instanceof PatientDocumentsResponse response ? response.documents() : (List<String>) value;
+            return documents == null ? null : documents.stream().map(DocumentRef::inline).toList();
+        }
+        try (var input = openBody(bytes)) {
+            var type = input.readByte();
+            if (type == TYPE_PATIENT_DOCUMENTS_RESPONSE) {
+                readString(input);
+                readString(input);
+            } else if (type != TYPE_DOCUMENTS && type != TYPE_DOCUMENT_REFS) {
+                throw new IOException("Unknown value type " + type);
+            }
+            return readDocumentRefs(input);
+        } catch (IOException corrupted) {
+            throw new SerializationException("Unable to deserialize compact value", corrupted);
+        }
+    }
+
+    private static DataInputStream openBody(byte[] bytes) throws IOException {
+        if (bytes[2] != FORMAT_VERSION) {
+            throw new IOException("Unsupported compact format version " + bytes[2]);
+        }
+        InputStream body = new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        if (bytes[3] == CODEC_DEFLATE) {
+            body = new InflaterInputStream(body);
+        }
+        return new DataInputStream(body);
+    }
+
+    static boolean isCompact(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    private static boolean isSupported(Object value) {
+        if (value instanceof PatientDocumentsResponse) {
+            return true;
+        }
+        return value instanceof List<?> list
+                && (list.stream().allMatch(String.class::isInstance) || list.stream().allMatch(DocumentRef.class::isInstance));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeBody(OutputStream output, Object value) throws IOException {
+        if (value instanceof PatientDocumentsResponse response) {
+            output.write(TYPE_PATIENT_DOCUMENTS_RESPONSE);
+            writeString(output, response.patient().doctorId());
+            writeString(output, response.patient().patientId());
+            writeDocuments(output, response.documents());
+        } else if (!((List<?>) value).isEmpty() && ((List<?>) value).get(0) instanceof DocumentRef) {
+            output.write(TYPE_DOCUMENT_REFS);
+            writeDocumentRefs(output, (List<DocumentRef>) value);
+        } else {
+            output.write(TYPE_DOCUMENTS);
+            writeDocuments(output, (List<String>) value);
+        }
+    }
+
+    private Object readBody(DataInputStream input) throws IOException {
+        var type = input.readByte();
+        return switch (type) {
+            case TYPE_DOCUMENTS -> readDocuments(input);
+            case TYPE_DOCUMENT_REFS -> readDocumentRefs(input);
+            case TYPE_PATIENT_DOCUMENTS_RESPONSE -> {
+                var patient = new Patient(readString(input), readString(input));
+                yield new PatientDocumentsResponse(patient, readDocuments(input));
+            }
+            default -> throw new IOException("Unknown value type " + type);
+        };
+    }
+
+    private void writeDocuments(OutputStream output, List<String> documents) throws IOException {
+        writeVarInt(output, documents.size());
+        var chunkFinder = chunkStore == null ? null : chunkStore.finder();
+        var previous = "";
+        for (var document : documents) {
+            var chunkRef = chunkFinder == null ? Optional.<DocumentRef>empty() : chunkFinder.find(document);
+            if (chunkRef.isPresent()) {
+                var ref = chunkRef.get();
+                output.write(ELEMENT_CHUNK);
+                writeString(output, ref.prefix());
+                writeString(output, ref.chunkHash());
+                writeString(output, ref.suffix());
+            } else {
+                var sharedPrefixLength = sharedPrefixLength(previous, document);
+                output.write(ELEMENT_DELTA);
+                writeVarInt(output, sharedPrefixLength);
+                writeString(output, document.substring(sharedPrefixLength));
+            }
+            previous = document;
+        }
+    }
+
+    private void writeDocumentRefs(OutputStream output, List<DocumentRef> refs) throws IOException {
+        writeVarInt(output, refs.size());
+        var previous = "";
+        for (var ref : refs) {
+            if (ref.isInline()) {
+                var document = ref.prefix().concat(ref.suffix());
+                var sharedPrefixLength = sharedPrefixLength(previous, document);
+                output.write(ELEMENT_DELTA);
+                writeVarInt(output, sharedPrefixLength);
+                writeString(output, document.substring(sharedPrefixLength));
+                previous = document;
+            } else {
+                output.write(ELEMENT_CHUNK);
+                writeString(output, ref.prefix());
+                writeString(output, ref.chunkHash());
+                writeString(output, ref.suffix());
+                // Chunk is not materialized for the delta of the next document
+                previous = "";
+            }
+        }
+    }
+
+    private List<String> readDocuments(DataInputStream input) throws IOException {
+        var refs = readDocumentRefs(input);
+        var documents = new ArrayList<String>(refs.size());
+        for (var ref : refs) {
+            documents.add(assemble(ref));
+        }
+        return documents;
+    }
+
+    private List<DocumentRef> readDocumentRefs(DataInputStream input) throws IOException {
+        var size = readVarInt(input);
+        var refs = new ArrayList<DocumentRef>(size);
+        DocumentRef previous = DocumentRef.inline("");
+        for (int i = 0; i < size; i++) {
+            var element = input.readByte();
+            var ref = switch (element) {
+                case ELEMENT_DELTA -> {
+                    var sharedPrefixLength = readVarInt(input);
+                    var suffix = readString(input);
+                    // Chunk of the previous document is materialized only when some of it is actually shared
+                    var sharedPrefix = sharedPrefixLength == 0 ? "" : assemble(previous).substring(0, sharedPrefixLength);
+                    yield DocumentRef.inline(sharedPrefix.concat(suffix));
+                }
+                case ELEMENT_CHUNK -> new DocumentRef(readString(input), readString(input), readString(input));
+                default -> throw new IOException("Unknown document element " + element);
+            };
+            refs.add(ref);
+            previous = ref;
+        }
+        return refs;
+    }
+
+    private String assemble(DocumentRef ref) throws IOException {
+        if (ref.isInline()) {
+            return ref.prefix().concat(ref.suffix());
+        }
+        if (chunkStore == null) {
+            throw new IOException("Document references chunk " + ref.chunkHash() + " but no chunk store is configured");
+        }
+        return chunkStore.assemble(ref);
+    }
+
+    private static int sharedPrefixLength(String previous, String current) {
+        var maxLength = Math.min(previous.length(), current.length());
+        var length = 0;
+        while (length < maxLength && previous.charAt(length) == current.charAt(length)) {
+            length++;
+        }
+        // Never split a surrogate pair, the suffix has to be valid UTF-16 on its own
+        if (length > 0 && Character.isHighSurrogate(current.charAt(length - 1))) {
+            length--;
+        }
+        return length;
+    }
+
+    private static void writeString(OutputStream output, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        var bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readVarInt(InputStream input) throws IOException {
+        var value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            var next = input.read();
+            if (next < 0) {
+                throw new EOFException();
+            }
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,45 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Chooses per cache name whether values are written by {@link CompactRedisSerializer} or still in the legacy format.
+ */
+public class CompactRedisSerializers {
+
+    private final Set<String> compactCaches;
+
+    private final int compressionLevel;
+
+    private final DocumentChunkStore chunkStore;
+
+    private final MeterRegistry meterRegistry;
+
+    public CompactRedisSerializers(Collection<String> compactCaches, int compressionLevel, DocumentChunkStore chunkStore,
+                                   MeterRegistry meterRegistry) {
+        this.compactCaches = Set.copyOf(compactCaches);
+        this.compressionLevel = compressionLevel;
+        this.chunkStore = chunkStore;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Serializer of the cache, reporting size of written values to {@link CacheMetrics} of the cache.
+     */
+    public CompactRedisSerializer forCache(String cacheName, RedisSerializer<Object> legacySerializer) {
+        var cacheMetrics = new CacheMetrics(meterRegistry, cacheName);
+        return new CompactRedisSerializer(legacySerializer, compactCaches.contains(cacheName), compressionLevel, chunkStore,
+                cacheMetrics::recordValueBytes);
+    }
+
+    /**
+     * Serializer always writing the compact format, for stores which were never written in the legacy format.
+     */
+    public CompactRedisSerializer compact() {
+        return new CompactRedisSerializer(RedisSerializer.java(), true, compressionLevel, chunkStore);
+    }
+}
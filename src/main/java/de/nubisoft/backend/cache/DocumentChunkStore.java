@@ -0,0 +1,198 @@
+package de.nubisoft.backend.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed store of document content shared between documents and patients.
+ * <p>
+ * Every chunk is kept once, under its SHA-256 hash: locally and in Redis, so other pods can resolve references
+ * written by this one. Chunks registered by this pod are kept for its whole lifetime, chunks resolved from Redis
+ * are kept in a weight bounded cache. Cache entries hold only {@link DocumentRef}s (hash plus per document
+ * prefix and suffix) and documents are reassembled when the response is built.
+ * <p>
+ * Redis copies expire after {@code timeToLive} since the last write referencing them, which has to be longer than
+ * TTL of any cache entry holding a reference. Chunks are published by the cache write paths, before writing values
+ * which might reference them, serialization itself does not call Redis. Redis is called through
+ * {@link RedisCircuitBreaker}: while it is open, chunks are not published and only chunks known locally are resolved.
+ */
+@Slf4j
+public class DocumentChunkStore {
+
+    static final String CHUNK_KEY_PREFIX = "document-chunk:";
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Duration timeToLive;
+
+    private final Map<String, String> registeredChunks = new ConcurrentHashMap<>();
+
+    private final Cache<String, String> resolvedChunks;
+
+    private final Map<String, Long> publishedAt = new ConcurrentHashMap<>();
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    public DocumentChunkStore(StringRedisTemplate redisTemplate, long localBudgetBytes, Duration timeToLive,
+                              RedisCircuitBreaker circuitBreaker) {
+        this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+        this.timeToLive = timeToLive;
+        this.resolvedChunks = Caffeine.newBuilder()
+                .maximumWeight(localBudgetBytes)
+                .weigher((String hash, String content) -> content.length() * 2)
+                .build();
+    }
+
+    /**
+     * Registers shared content produced by this pod.
+     *
+     * @return hash of the content, to be used in {@link DocumentRef}
+     */
+    public String register(String content) {
+        var hash = hash(content);
+        registeredChunks.putIfAbsent(hash, content);
+        return hash;
+    }
+
+    /**
+     * Makes sure all chunks registered by this pod can be resolved by other pods, has to be called before a value
+     * which might reference them is written to Redis. Every chunk is written at most once per half of its TTL.
+     */
+    public void publishRegistered() {
+        registeredChunks.keySet().forEach(this::publish);
+    }
+
+    private void publish(String hash) {
+        var now = System.currentTimeMillis();
+        var lastPublishedAt = publishedAt.get(hash);
+        if (lastPublishedAt != null && now - lastPublishedAt < timeToLive.toMillis() / 2) {
+            return;
+        }
+        var content = registeredChunks.get(hash);
+        if (content == null) {
+            return;
+        }
+        try {
+            circuitBreaker.run(() -> {
+                redisTemplate.opsForValue().set(CHUNK_KEY_PREFIX + hash, content, timeToLive);
+                publishedAt.put(hash, now);
+            });
+        } catch (RuntimeException unexpected) {
+            log.warn("Unable to publish document chunk {}", hash, unexpected);
+        }
+    }
+
+    /**
+     * @throws MissingChunkException when the chunk is neither known locally nor in Redis
+     */
+    public String resolve(String hash) {
+        var registered = registeredChunks.get(hash);
+        if (registered != null) {
+            return registered;
+        }
+        return resolvedChunks.get(hash, missingHash -> {
+            var content = circuitBreaker.call(() -> redisTemplate.opsForValue().get(CHUNK_KEY_PREFIX + missingHash), () -> null);
+            if (content == null) {
+                throw new MissingChunkException(missingHash);
+            }
+            return content;
+        });
+    }
+
+    /**
+     * @return finder of chunks registered by this pod within documents of one value
+     */
+    public ChunkFinder finder() {
+        return new ChunkFinder();
+    }
+
+    /**
+     * Finds chunks registered by this pod within documents of one value. Documents of a value are built alike, so once
+     * a chunk is found, following documents are checked for the same chunk at the same offset first, which is a single
+     * comparison instead of a search. Not thread-safe, to be used for one value at a time.
+     */
+    public class ChunkFinder {
+
+        private String lastHash;
+
+        private int lastOffset;
+
+        private ChunkFinder() {
+        }
+
+        public Optional<DocumentRef> find(String document) {
+            if (lastHash != null) {
+                var content = registeredChunks.get(lastHash);
+                if (content != null && document.length() - lastOffset >= content.length()
+                        && document.startsWith(content, lastOffset)) {
+                    return Optional.of(ref(document, lastOffset, lastHash, content));
+                }
+            }
+            for (var chunk : registeredChunks.entrySet()) {
+                var content = chunk.getValue();
+                if (document.length() < content.length()) {
+                    continue;
+                }
+                var offset = document.indexOf(content);
+                if (offset >= 0) {
+                    lastHash = chunk.getKey();
+                    lastOffset = offset;
+                    return Optional.of(ref(document, offset, chunk.getKey(), content));
+                }
+            }
+            return Optional.empty();
+        }
+
+        private static DocumentRef ref(String document, int offset, String hash, String content) {
+            return new DocumentRef(document.substring(0, offset), hash, document.substring(offset + content.length()));
+        }
+    }
+
+    public String assemble(DocumentRef ref) {
+        if (ref.isInline()) {
+            return ref.prefix().concat(ref.suffix());
+        }
+        var content = resolve(ref.chunkHash());
+        return new StringBuilder(ref.prefix().length() + content.length() + ref.suffix().length())
+                .append(ref.prefix())
+                .append(content)
+                .append(ref.suffix())
+                .toString();
+    }
+
+    public List<String> assemble(List<DocumentRef> refs) {
+        return refs.stream().map(this::assemble).toList();
+    }
+
+    /**
+     * Chunk referenced by a document is not available, e.g. it has expired in Redis.
+     */
+    public static class MissingChunkException extends IllegalStateException {
+
+        MissingChunkException(String hash) {
+            super("Unknown document chunk " + hash);
+        }
+    }
+
+    private static String hash(String content) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException unexpected) {
+            throw new IllegalStateException(unexpected);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package de.nubisoft.backend.cache;
+
+/**
+ * Reference to a document stored in {@link DocumentChunkStore}: document is {@code prefix + chunk + suffix}.
+ * Documents without shared content are kept inline, in the prefix, and have no chunk hash.
+ *
+ * @param prefix    per document text preceding the shared chunk
+ * @param chunkHash content hash of the shared chunk, {@code null} for inline documents
+ * @param suffix    per document text following the shared chunk
+ */
+public record DocumentRef(String prefix, String chunkHash, String suffix) {
+
+    public static DocumentRef inline(String document) {
+        return new DocumentRef(document, null, "");
+    }
+
+    public boolean isInline() {
+        return chunkHash == null;
+    }
+
+    /**
+     * Rough estimate of heap occupied by the reference, the shared chunk is not included.
+     */
+    public int estimatedBytes() {
+        return 32 + estimatedBytes(prefix) + estimatedBytes(chunkHash) + estimatedBytes(suffix);
+    }
+
+    private static int estimatedBytes(String value) {
+        return value == null ? 0 : MemoryAwareCaches.stringBytes(value);
+    }
+}
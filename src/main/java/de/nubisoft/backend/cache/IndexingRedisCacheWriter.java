@@ -0,0 +1,81 @@
+package de.nubisoft.backend.cache;
+
+import org.springframework.data.redis.cache.CacheStatistics;
+import org.springframework.data.redis.cache.CacheStatisticsCollector;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * {@link RedisCacheWriter} keeping keys of written entries in a {@link RedisKeyIndex}, so clearing a cache deletes
+ * the indexed keys instead of scanning the keyspace for keys matching the cache prefix.
+ * <p>
+ * Chunks of {@link DocumentChunkStore} are published before every write, as written values might reference them.
+ */
+class IndexingRedisCacheWriter implements RedisCacheWriter {
+
+    private final RedisCacheWriter delegate;
+
+    private final RedisKeyIndex keyIndex;
+
+    private final DocumentChunkStore chunkStore;
+
+    IndexingRedisCacheWriter(RedisCacheWriter delegate, RedisKeyIndex keyIndex, DocumentChunkStore chunkStore) {
+        this.delegate = delegate;
+        this.keyIndex = keyIndex;
+        this.chunkStore = chunkStore;
+    }
+
+    @Override
+    public void put(String name, byte[] key, byte[] value, Duration ttl) {
+        chunkStore.publishRegistered();
+        delegate.put(name, key, value, ttl);
+        keyIndex.add(name, new String(key, StandardCharsets.UTF_8), ttl);
+    }
+
+    @Override
+    public byte[] get(String name, byte[] key) {
+        return delegate.get(name, key);
+    }
+
+    @Override
+    public byte[] putIfAbsent(String name, byte[] key, byte[] value, Duration ttl) {
+        chunkStore.publishRegistered();
+        var existing = delegate.putIfAbsent(name, key, value, ttl);
+        if (existing == null) {
+            keyIndex.add(name, new String(key, StandardCharsets.UTF_8), ttl);
+        }
+        return existing;
+    }
+
+    @Override
+    public void remove(String name, byte[] key) {
+        delegate.remove(name, key);
+    }
+
+    /**
+     * Deletes all indexed keys of the cache, the pattern (the cache prefix followed by a wildcard) is not used. Caches
+     * are cleared through {@link NearCache}, which calls Redis through the circuit breaker, so failures are thrown to
+     * it.
+     */
+    @Override
+    public void clean(String name, byte[] pattern) {
+        keyIndex.deleteIndexed(name);
+    }
+
+    @Override
+    public void clearStatistics(String name) {
+        delegate.clearStatistics(name);
+    }
+
+    @Override
+    public RedisCacheWriter withStatisticsCollector(CacheStatisticsCollector cacheStatisticsCollector) {
+        return new IndexingRedisCacheWriter(delegate.withStatisticsCollector(cacheStatisticsCollector), keyIndex, chunkStore);
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics(String cacheName) {
+        return delegate.getCacheStatistics(cacheName);
+    }
+}
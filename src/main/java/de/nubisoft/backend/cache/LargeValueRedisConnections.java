@@ -0,0 +1,113 @@
+package de.nubisoft.backend.cache;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.SocketOptions;
+import io.lettuce.core.TimeoutOptions;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
+
+import java.time.Duration;
+
+/**
+ * Redis connections for reads and writes of large (multi-MB) cached values.
+ * <p>
+ * The command timeout of {@code spring.data.redis.timeout} is kept short to bound leases, indexes and invalidations.
+ * Transferring a large value takes longer in normal operation, so with that timeout slow transfers would count as
+ * failures and open the {@link RedisCircuitBreaker}. These connections go to the same (standalone) Redis with the same
+ * pool settings, only with a longer command timeout.
+ * <p>
+ * Not a {@link RedisConnectionFactory} bean on purpose: the auto-configured connection factory stays the one used by
+ * everything else.
+ */
+public class LargeValueRedisConnections implements DisposableBean {
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    /**
+     * @param properties standard {@code spring.data.redis.*} settings
+     * @param timeout    command timeout of large value transfers
+     */
+    public LargeValueRedisConnections(RedisProperties properties, Duration timeout) {
+        this.connectionFactory = new LettuceConnectionFactory(serverConfiguration(properties),
+                clientConfiguration(properties, timeout));
+        this.connectionFactory.afterPropertiesSet();
+    }
+
+    public RedisConnectionFactory connectionFactory() {
+        return connectionFactory;
+    }
+
+    public ReactiveRedisConnectionFactory reactiveConnectionFactory() {
+        return connectionFactory;
+    }
+
+    private static RedisStandaloneConfiguration serverConfiguration(RedisProperties properties) {
+        if (properties.getUrl() != null) {
+            var uri = RedisURI.create(properties.getUrl());
+            var configuration = new RedisStandaloneConfiguration(uri.getHost(), uri.getPort());
+            configuration.setDatabase(uri.getDatabase());
+            configuration.setUsername(uri.getUsername());
+            if (uri.getPassword() != null) {
+                configuration.setPassword(RedisPassword.of(uri.getPassword()));
+            }
+            return configuration;
+        }
+        var configuration = new RedisStandaloneConfiguration(properties.getHost(), properties.getPort());
+        configuration.setDatabase(properties.getDatabase());
+        configuration.setUsername(properties.getUsername());
+        configuration.setPassword(RedisPassword.of(properties.getPassword()));
+        return configuration;
+    }
+
+    private static LettuceClientConfiguration clientConfiguration(RedisProperties properties, Duration timeout) {
+        var pool = properties.getLettuce().getPool();
+        // Pooling is enabled unless disabled explicitly, as commons-pool2 is on the classpath
+        var builder = Boolean.FALSE.equals(pool.getEnabled())
+                ? LettuceClientConfiguration.builder()
+                : LettucePoolingClientConfiguration.builder().poolConfig(poolConfig(pool));
+        var socketOptions = SocketOptions.builder();
+        if (properties.getConnectTimeout() != null) {
+            socketOptions.connectTimeout(properties.getConnectTimeout());
+        }
+        builder.commandTimeout(timeout)
+                .clientOptions(ClientOptions.builder()
+                        .socketOptions(socketOptions.build())
+                        .timeoutOptions(TimeoutOptions.enabled())
+                        .build());
+        if (properties.getClientName() != null) {
+            builder.clientName(properties.getClientName());
+        }
+        if (properties.isSsl() || (properties.getUrl() != null && RedisURI.create(properties.getUrl()).isSsl())) {
+            builder.useSsl();
+        }
+        return builder.build();
+    }
+
+    private static GenericObjectPoolConfig<?> poolConfig(RedisProperties.Pool pool) {
+        var config = new GenericObjectPoolConfig<>();
+        config.setMaxTotal(pool.getMaxActive());
+        config.setMaxIdle(pool.getMaxIdle());
+        config.setMinIdle(pool.getMinIdle());
+        if (pool.getMaxWait() != null) {
+            config.setMaxWait(pool.getMaxWait());
+        }
+        if (pool.getTimeBetweenEvictionRuns() != null) {
+            config.setTimeBetweenEvictionRuns(pool.getTimeBetweenEvictionRuns());
+        }
+        return config;
+    }
+
+    @Override
+    public void destroy() {
+        connectionFactory.destroy();
+    }
+}
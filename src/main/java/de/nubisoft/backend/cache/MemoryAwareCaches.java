@@ -0,0 +1,282 @@
+package de.nubisoft.backend.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import de.nubisoft.backend.domain.LocalCacheStats;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Factory and supervisor of in-process caches bounded by a byte budget instead of a number of entries.
+ * <p>
+ * The byte budget is shared: it bounds all caches together and is split evenly between the registered caches. Caches
+ * capped below their share (see {@link #build(String, long, Weigher, Function)}) leave the rest to the others. The
+ * split is recomputed whenever a cache is registered.
+ * <p>
+ * Every cache is weighed by estimated entry size and may optionally hold its values softly, so the GC can reclaim
+ * them as a last resort (except asynchronous caches, which cannot hold values softly). After every garbage
+ * collection the heap usage is checked: when it exceeds {@code pressureThreshold} of the maximum heap, all caches
+ * shrink their maximum weight by {@code shrinkFactor}, and they grow back to their share of the budget once the
+ * pressure is gone.
+ * <p>
+ * Every cache is reported to Micrometer: Caffeine statistics plus the weighted size in bytes.
+ */
+@Slf4j
+public class MemoryAwareCaches implements NotificationListener, DisposableBean {
+
+    private static final String GARBAGE_COLLECTION_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private static final long MINIMUM_BYTES = 1024 * 1024;
+
+    private final long budgetBytes;
+
+    private final boolean softValues;
+
+    private final double pressureThreshold;
+
+    private final double shrinkFactor;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Budgeted> caches = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> expectedEntryBytes = new ConcurrentHashMap<>();
+
+    private final Set<String> undersizedCaches = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean underPressure;
+
+    /**
+     * @param cache    the registered cache
+     * @param capBytes budget the cache needs at most, its share of the shared budget may be lower
+     */
+    private record Budgeted(Cache<?, ?> cache, long capBytes) {
+    }
+
+    /**
+     * @param budgetBytes byte budget shared by all caches
+     */
+    public MemoryAwareCaches(long budgetBytes, boolean softValues, double pressureThreshold, double shrinkFactor,
+                             MeterRegistry meterRegistry) {
+        this.budgetBytes = budgetBytes;
+        this.softValues = softValues;
+        this.pressureThreshold = pressureThreshold;
+        this.shrinkFactor = shrinkFactor;
+        this.meterRegistry = meterRegistry;
+        ManagementFactory.getGarbageCollectorMXBeans().forEach(collector -> {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(this, null, null);
+            }
+        });
+    }
+
+    /**
+     * Builds a cache bounded by its share of the byte budget.
+     *
+     * @param name      name under which the cache is reported
+     * @param weigher   estimates entry size in bytes
+     * @param customize applies cache specific settings (e.g. expiration) and builds the cache
+     */
+    public <K, V, C extends Cache<K, V>> C build(String name, Weigher<? super K, ? super V> weigher,
+                                                 Function<Caffeine<K, V>, C> customize) {
+        return build(name, budgetBytes, weigher, customize);
+    }
+
+    /**
+     * Same as {@link #build(String, Weigher, Function)} for caches which need less than the byte budget.
+     *
+     * @param maximumBytes cap of the cache, its share of the byte budget applies when lower
+     */
+    public <K, V, C extends Cache<K, V>> C build(String name, long maximumBytes, Weigher<? super K, ? super V> weigher,
+                                                 Function<Caffeine<K, V>, C> customize) {
+        var builder = Caffeine.newBuilder()
+                .maximumWeight(Math.min(maximumBytes, budgetBytes))
+                .recordStats();
+        if (softValues) {
+            builder.softValues();
+        }
+        Caffeine<K, V> weighedBuilder = builder.weigher(weigher);
+        var cache = customize.apply(weighedBuilder);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        register(name, cache, maximumBytes);
+        return cache;
+    }
+
+    /**
+     * Builds an asynchronous cache bounded by its share of the byte budget, entries are weighed once their value is
+     * loaded.
+     *
+     * @param name      name under which the cache is reported
+     * @param weigher   estimates entry size in bytes
+     * @param customize applies cache specific settings (e.g. expiration) and builds the cache
+     */
+    public <K, V, C extends AsyncCache<K, V>> C buildAsync(String name, Weigher<? super K, ? super V> weigher,
+                                                           Function<Caffeine<K, V>, C> customize) {
+        Caffeine<K, V> weighedBuilder = Caffeine.newBuilder()
+                .maximumWeight(budgetBytes)
+                .recordStats()
+                .weigher(weigher);
+        var cache = customize.apply(weighedBuilder);
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        register(name, cache.synchronous(), budgetBytes);
+        return cache;
+    }
+
+    /**
+     * Warns, now or once the cache is built, when its share of the budget cannot hold a single entry of the typical
+     * size: Caffeine evicts such entries right away, so the cache would never be hit.
+     */
+    public void expectEntries(String name, long typicalEntryBytes) {
+        expectedEntryBytes.put(name, typicalEntryBytes);
+        checkExpectedEntries(name);
+    }
+
+    /**
+     * Estimated heap size of a string: one byte per character of Latin-1 content (compact strings, the JVM default),
+     * two bytes per character otherwise.
+     */
+    public static int stringBytes(String value) {
+        var length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) > 0xFF) {
+                return 40 + 2 * length;
+            }
+        }
+        return 40 + length;
+    }
+
+    private void checkExpectedEntries(String name) {
+        var expected = expectedEntryBytes.get(name);
+        var share = shares().get(name);
+        if (expected != null && share != null && expected > share && undersizedCaches.add(name)) {
+            log.warn("Share of local cache {} ({} bytes of the {} bytes budget shared by {} caches) cannot hold a "
+                            + "single typical entry ({} bytes), its entries are evicted right away, raise "
+                            + "caching.local.budget", name, share, budgetBytes, caches.size(), expected);
+        }
+    }
+
+    private void register(String name, Cache<?, ?> cache, long capBytes) {
+        caches.put(name, new Budgeted(cache, capBytes));
+        rebalance();
+        Gauge.builder("cache.weighted.size", cache, it -> it.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .tag("cache", name)
+                .baseUnit("bytes")
+                .description("Estimated size of cached entries")
+                .register(meterRegistry);
+    }
+
+    public List<LocalCacheStats> getStats() {
+        var shares = shares();
+        return caches.entrySet().stream()
+                .map(entry -> {
+                    var cache = entry.getValue().cache();
+                    var eviction = cache.policy().eviction();
+                    return new LocalCacheStats(entry.getKey(),
+                            cache.estimatedSize(),
+                            eviction.map(it -> it.weightedSize().orElse(0)).orElse(0L),
+                            eviction.map(it -> it.getMaximum()).orElse(0L),
+                            shares.getOrDefault(entry.getKey(), 0L),
+                            cache.stats().evictionCount(),
+                            softValues,
+                            underPressure);
+                })
+                .toList();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        var heapUsageAfterGc = (double) heapUsedAfterGc() / Runtime.getRuntime().maxMemory();
+        if (heapUsageAfterGc >= pressureThreshold) {
+            underPressure = true;
+            log.warn("Heap usage after GC is {}%, shrinking local caches", Math.round(heapUsageAfterGc * 100));
+            resize((maximum, share) -> Math.min(maximum, Math.max(MINIMUM_BYTES, (long) (maximum * shrinkFactor))));
+        } else if (underPressure && heapUsageAfterGc < pressureThreshold * 0.8) {
+            resize((maximum, share) -> Math.min(share, maximum * 2));
+            var shares = shares();
+            underPressure = caches.entrySet().stream()
+                    .anyMatch(entry -> entry.getValue().cache().policy().eviction()
+                            .map(it -> it.getMaximum() < shares.get(entry.getKey())).orElse(false));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        ManagementFactory.getGarbageCollectorMXBeans().forEach(collector -> {
+            if (collector instanceof NotificationEmitter emitter) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (ListenerNotFoundException ignored) {
+                    // Nothing to remove
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the shares of a new split, caches under heap pressure keep their (lower) shrunk maximum weight.
+     */
+    private synchronized void rebalance() {
+        var shares = shares();
+        caches.forEach((name, budgeted) -> budgeted.cache().policy().eviction()
+                .ifPresent(eviction -> eviction.setMaximum(underPressure
+                        ? Math.min(eviction.getMaximum(), shares.get(name))
+                        : shares.get(name))));
+        caches.keySet().forEach(this::checkExpectedEntries);
+    }
+
+    /**
+     * Splits the byte budget evenly, starting with the smallest caps: a cache capped below its share takes its cap,
+     * and what it leaves is split between the remaining caches.
+     */
+    private Map<String, Long> shares() {
+        var byCap = caches.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.comparingLong(Budgeted::capBytes)))
+                .toList();
+        var shares = new HashMap<String, Long>();
+        var remainingBytes = budgetBytes;
+        var remainingCaches = byCap.size();
+        for (var entry : byCap) {
+            var share = Math.min(entry.getValue().capBytes(), remainingBytes / remainingCaches);
+            shares.put(entry.getKey(), share);
+            remainingBytes -= share;
+            remainingCaches--;
+        }
+        return shares;
+    }
+
+    private synchronized void resize(BinaryOperator<Long> newMaximum) {
+        var shares = shares();
+        caches.forEach((name, budgeted) -> budgeted.cache().policy().eviction()
+                .ifPresent(eviction -> eviction.setMaximum(newMaximum.apply(eviction.getMaximum(), shares.get(name)))));
+    }
+
+    private static long heapUsedAfterGc() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                .mapToLong(pool -> pool.getCollectionUsage().getUsed())
+                .sum();
+    }
+}
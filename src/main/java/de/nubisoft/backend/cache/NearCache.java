@@ -0,0 +1,369 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+/**
+ * Two-tier {@link Cache}: a pod local Caffeine cache (L1), bounded by {@link MemoryAwareCaches}, in front of a shared
+ * remote cache (L2, Redis).
+ * <p>
+ * Reads are served from L1 whenever possible and fall back to L2, populating L1 on the way back.
+ * Every write or eviction goes to L2 first, then to L1 and finally is broadcast to other pods,
+ * so their L1 does not serve an entry which was changed or evicted elsewhere.
+ * <p>
+ * L1 keys are the string form of the cache key, the same form which is sent over the invalidation channel.
+ * Every invalidation bumps a version of the key (striped), and a value read from L2 is put to L1 only when the version
+ * has not changed since the read started, so an invalidation arriving meanwhile is not overwritten by the stale value.
+ * <p>
+ * Synchronized loads ({@code @Cacheable(sync = true)}) are coalesced by {@link SingleFlight}, so an expired hot entry
+ * is loaded once across all pods.
+ * <p>
+ * L1 remembers when the L2 entry expires (read pipelined with the value when L1 is populated from L2). A synchronized
+ * read of an entry past its soft TTL is served immediately and the entry is reloaded in the background by
+ * {@link CacheRefresher}, by one pod only, with the {@link CacheReloader} registered for the cache in
+ * {@link NearCacheManager}. The caller's value loader is never kept for later, it is bound to the caller's call.
+ * This requires L2 to be a {@link TtlAwareRedisCacheManager.TtlAwareRedisCache} with a TTL, entries of caches without
+ * a reloader are loaded by their callers once expired.
+ * <p>
+ * L2 is called through {@link RedisCircuitBreaker}: while Redis is not available, reads are served by L1 or the loader
+ * and writes go to L1 only.
+ * <p>
+ * Hits, misses, load time and explicit evictions of the whole cache are recorded by {@link CacheMetrics},
+ * L1 alone is reported under the cache name suffixed with {@value #LOCAL_METRICS_SUFFIX}.
+ */
+class NearCache implements Cache {
+
+    static final String LOCAL_METRICS_SUFFIX = "near";
+
+    private static final long UNKNOWN_EXPIRATION = -1;
+
+    private static final int INVALIDATION_STRIPES = 64;
+
+    private final Cache remote;
+
+    private final com.github.benmanes.caffeine.cache.Cache<String, LocalEntry> local;
+
+    private final NearCacheManager manager;
+
+    private final SingleFlight singleFlight;
+
+    private final CacheMetrics metrics;
+
+    private final CacheRefresher refresher;
+
+    private final Duration remoteTimeToLive;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    private final AtomicLongArray invalidationVersions = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    /**
+     * @param value           cached value
+     * @param remoteExpiresAt epoch millis when the L2 entry expires, {@value #UNKNOWN_EXPIRATION} when unknown
+     */
+    private record LocalEntry(Object value, long remoteExpiresAt) {
+    }
+
+    /**
+     * @param valueWeigher estimates size of a cached value in bytes, L1 is bounded by the budget of
+     *                     {@code memoryAwareCaches}
+     */
+    NearCache(Cache remote, MemoryAwareCaches memoryAwareCaches, ToIntFunction<Object> valueWeigher, Duration timeToLive,
+              NearCacheManager manager, SingleFlight singleFlight, MeterRegistry meterRegistry, CacheRefresher refresher,
+              RedisCircuitBreaker circuitBreaker) {
+        this.remote = remote;
+        this.circuitBreaker = circuitBreaker;
+        this.manager = manager;
+        this.singleFlight = singleFlight;
+        this.refresher = refresher;
+        this.remoteTimeToLive = remote instanceof TtlAwareRedisCacheManager.TtlAwareRedisCache redisCache
+                && !redisCache.getCacheConfiguration().getTtl().isZero()
+                ? redisCache.getCacheConfiguration().getTtl()
+                : null;
+        this.metrics = new CacheMetrics(meterRegistry, remote.getName());
+        this.local = memoryAwareCaches.build(NearCacheManager.localCacheName(remote.getName()),
+                (String localKey, LocalEntry entry) -> 64 + 2 * localKey.length() + valueWeigher.applyAsInt(entry.value()),
+                caffeine -> caffeine.expireAfterWrite(timeToLive).build());
+    }
+
+    @Override
+    public String getName() {
+        return remote.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        var entry = lookup(key);
+        if (entry != null) {
+            metrics.recordHit();
+            return new SimpleValueWrapper(entry.value());
+        }
+        metrics.recordMiss();
+        return null;
+    }
+
+    private LocalEntry lookup(Object key) {
+        var localKey = localKey(key);
+        var localEntry = local.getIfPresent(localKey);
+        if (localEntry != null) {
+            return localEntry;
+        }
+        var version = invalidationVersion(localKey);
+        var remoteEntry = circuitBreaker.call(() -> readRemote(key), () -> null);
+        if (remoteEntry == null) {
+            return null;
+        }
+        putLocalIfNotInvalidated(localKey, remoteEntry, version, false);
+        return remoteEntry;
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> type) {
+        var wrapper = get(key);
+        return cast(wrapper == null ? null : wrapper.get(), type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value, Class<T> type) {
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        var localKey = localKey(key);
+        var localEntry = local.getIfPresent(localKey);
+        if (localEntry != null) {
+            metrics.recordHit();
+            refreshIfStale(key, localEntry);
+            return cast(localEntry.value(), null);
+        }
+        var version = invalidationVersion(localKey);
+        var loadedHere = new AtomicBoolean();
+        var foundEntry = new AtomicReference<LocalEntry>();
+        T value = singleFlight.load(getName() + localKey,
+                () -> {
+                    var entry = lookup(key);
+                    foundEntry.set(entry);
+                    return entry == null ? null : cast(entry.value(), null);
+                },
+                () -> {
+                    loadedHere.set(true);
+                    var loaded = metrics.load(() -> call(key, valueLoader));
+                    put(key, loaded);
+                    return loaded;
+                });
+        if (loadedHere.get()) {
+            metrics.recordMiss();
+        } else {
+            metrics.recordHit();
+            if (foundEntry.get() != null) {
+                refreshIfStale(key, foundEntry.get());
+            }
+        }
+        if (value != null) {
+            // Value might have been loaded by another caller within the pod, it has just been written to L2
+            putLocalIfNotInvalidated(localKey, new LocalEntry(value, writtenRemoteExpiresAt()), version, true);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        var localKey = localKey(key);
+        circuitBreaker.run(() -> remote.put(key, value));
+        // Values read from L2 before the write must not replace the written one
+        invalidateLocal(localKey);
+        if (value != null) {
+            local.put(localKey, new LocalEntry(value, writtenRemoteExpiresAt()));
+        }
+        manager.publishEviction(getName(), localKey);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        var localKey = localKey(key);
+        var version = invalidationVersion(localKey);
+        var existing = circuitBreaker.call(() -> remote.putIfAbsent(key, value), () -> null);
+        if (existing == null) {
+            manager.publishEviction(getName(), localKey);
+        }
+        var current = existing == null ? value : existing.get();
+        if (existing == null) {
+            // Values read from L2 before the write must not replace the written one, invalidations after it must win
+            invalidateLocal(localKey);
+            version = invalidationVersion(localKey);
+        }
+        if (current != null) {
+            putLocalIfNotInvalidated(localKey,
+                    new LocalEntry(current, existing == null ? writtenRemoteExpiresAt() : UNKNOWN_EXPIRATION), version, false);
+        }
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        evictShared(key);
+    }
+
+    /**
+     * @return whether L2 was evicted and other pods were notified, i.e. Redis was available
+     */
+    boolean evictShared(Object key) {
+        var localKey = localKey(key);
+        metrics.recordEviction();
+        var evicted = circuitBreaker.call(() -> {
+            remote.evict(key);
+            return true;
+        }, () -> false);
+        invalidateLocal(localKey);
+        return manager.publishEviction(getName(), localKey) && evicted;
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        var localKey = localKey(key);
+        var evicted = circuitBreaker.call(() -> remote.evictIfPresent(key), () -> false);
+        if (evicted) {
+            metrics.recordEviction();
+        }
+        invalidateLocal(localKey);
+        manager.publishEviction(getName(), localKey);
+        return evicted;
+    }
+
+    @Override
+    public void clear() {
+        clearShared();
+    }
+
+    /**
+     * @return whether L2 was cleared and other pods were notified, i.e. Redis was available
+     */
+    boolean clearShared() {
+        var cleared = circuitBreaker.call(() -> {
+            remote.clear();
+            return true;
+        }, () -> false);
+        clearLocal();
+        return manager.publishClear(getName()) && cleared;
+    }
+
+    @Override
+    public boolean invalidate() {
+        var invalidated = circuitBreaker.call(remote::invalidate, () -> false);
+        clearLocal();
+        manager.publishClear(getName());
+        return invalidated;
+    }
+
+    void evictLocal(String localKey) {
+        invalidateLocal(localKey);
+    }
+
+    void clearLocal() {
+        for (int stripe = 0; stripe < INVALIDATION_STRIPES; stripe++) {
+            invalidationVersions.incrementAndGet(stripe);
+        }
+        local.invalidateAll();
+    }
+
+    /**
+     * Version is bumped before the entry is dropped, so a concurrent {@link #putLocalIfNotInvalidated} either sees
+     * the new version or its entry is dropped afterwards.
+     */
+    private void invalidateLocal(String localKey) {
+        invalidationVersions.incrementAndGet(stripe(localKey));
+        local.invalidate(localKey);
+    }
+
+    private long invalidationVersion(String localKey) {
+        return invalidationVersions.get(stripe(localKey));
+    }
+
+    /**
+     * Puts the entry to L1 unless the key was invalidated since {@code version} was read. The check and the put are
+     * atomic with respect to {@link #invalidateLocal(String)} of the same key.
+     */
+    private void putLocalIfNotInvalidated(String localKey, LocalEntry entry, long version, boolean onlyIfAbsent) {
+        local.asMap().compute(localKey, (ignored, current) -> {
+            if (invalidationVersion(localKey) != version || (onlyIfAbsent && current != null)) {
+                return current;
+            }
+            return entry;
+        });
+    }
+
+    private static int stripe(String localKey) {
+        return Math.floorMod(localKey.hashCode(), INVALIDATION_STRIPES);
+    }
+
+    private void refreshIfStale(Object key, LocalEntry entry) {
+        var reloader = manager.reloader(getName());
+        if (reloader == null || !isStale(entry)) {
+            return;
+        }
+        var localKey = localKey(key);
+        refresher.refresh(getName() + localKey, () -> {
+            // Entry might have been refreshed, or evicted by a refresh of another pod, while waiting in the queue
+            var current = local.getIfPresent(localKey);
+            if (current == null || !isStale(current)) {
+                return;
+            }
+            singleFlight.refresh(getName() + localKey, () -> put(key, metrics.load(() -> reloader.reload(key, current.value()))));
+        });
+    }
+
+    private boolean isStale(LocalEntry entry) {
+        return remoteTimeToLive != null && entry.remoteExpiresAt() != UNKNOWN_EXPIRATION
+                && refresher.isStale(Math.max(0, entry.remoteExpiresAt() - System.currentTimeMillis()), remoteTimeToLive);
+    }
+
+    private long writtenRemoteExpiresAt() {
+        return remoteTimeToLive == null ? UNKNOWN_EXPIRATION : System.currentTimeMillis() + remoteTimeToLive.toMillis();
+    }
+
+    /**
+     * Reads the L2 entry, together with its remaining TTL when entries are refreshed ahead.
+     */
+    private LocalEntry readRemote(Object key) {
+        if (remoteTimeToLive == null) {
+            var remoteValue = remote.get(key);
+            return remoteValue == null || remoteValue.get() == null ? null : new LocalEntry(remoteValue.get(), UNKNOWN_EXPIRATION);
+        }
+        var remoteValue = ((TtlAwareRedisCacheManager.TtlAwareRedisCache) remote).getWithTtl(key);
+        if (remoteValue.value() == null || remoteValue.value().get() == null) {
+            return null;
+        }
+        var remainingMillis = remoteValue.remainingMillis();
+        return new LocalEntry(remoteValue.value().get(),
+                remainingMillis < 0 ? UNKNOWN_EXPIRATION : System.currentTimeMillis() + remainingMillis);
+    }
+
+    private static <T> T call(Object key, Callable<T> valueLoader) {
+        try {
+            return valueLoader.call();
+        } catch (Exception failure) {
+            throw new ValueRetrievalException(key, valueLoader, failure);
+        }
+    }
+
+    private static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,186 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link CacheManager} which puts a {@link NearCache} (pod local Caffeine L1, bounded by {@link MemoryAwareCaches})
+ * in front of every cache of the remote (Redis backed) cache manager.
+ * <p>
+ * L1 consistency between pods is kept by Redis pub/sub: every write or eviction is published on
+ * {@link #INVALIDATION_CHANNEL} and every pod drops the affected entry from its L1.
+ * Messages published by the pod itself are ignored, as its L1 is already up-to-date.
+ * <p>
+ * Entries of remote caches created by {@link TtlAwareRedisCacheManager} are refreshed ahead of their expiration by
+ * the {@link CacheReloader} registered for the cache.
+ * <p>
+ * Redis is called through {@link RedisCircuitBreaker}, invalidations are not published while it is open.
+ */
+@Slf4j
+public class NearCacheManager implements CacheManager, MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "near-cache-invalidation";
+
+    private static final char SEPARATOR = '\n';
+
+    private final CacheManager remoteCacheManager;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final MemoryAwareCaches memoryAwareCaches;
+
+    private final ToIntFunction<Object> valueWeigher;
+
+    private final Duration localTimeToLive;
+
+    private final SingleFlight singleFlight;
+
+    private final MeterRegistry meterRegistry;
+
+    private final CacheRefresher refresher;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ConcurrentMap<String, NearCache> caches = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CacheReloader> reloaders = new ConcurrentHashMap<>();
+
+    public NearCacheManager(CacheManager remoteCacheManager, StringRedisTemplate redisTemplate,
+                            MemoryAwareCaches memoryAwareCaches, ToIntFunction<Object> valueWeigher,
+                            Duration localTimeToLive, SingleFlight singleFlight,
+                            MeterRegistry meterRegistry, CacheRefresher refresher, RedisCircuitBreaker circuitBreaker) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.redisTemplate = redisTemplate;
+        this.memoryAwareCaches = memoryAwareCaches;
+        this.valueWeigher = valueWeigher;
+        this.localTimeToLive = localTimeToLive;
+        this.singleFlight = singleFlight;
+        this.meterRegistry = meterRegistry;
+        this.refresher = refresher;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, cacheName -> {
+            var remote = remoteCacheManager.getCache(cacheName);
+            return remote == null ? null : new NearCache(remote, memoryAwareCaches, valueWeigher, localTimeToLive, this, singleFlight,
+                    meterRegistry, refresher, circuitBreaker);
+        });
+    }
+
+    /**
+     * @return name of the pod local tier of the cache, as reported by {@link MemoryAwareCaches}
+     */
+    public static String localCacheName(String cacheName) {
+        return cacheName + NearCache.LOCAL_METRICS_SUFFIX;
+    }
+
+    /**
+     * Evicts the entry from all tiers of the cache, on all pods.
+     *
+     * @return whether the Redis tier was evicted and other pods were notified, {@code false} when Redis was not
+     * available
+     */
+    public boolean evict(String cacheName, Object key) {
+        return nearCache(cacheName).evictShared(key);
+    }
+
+    /**
+     * Drops all entries of the cache from all tiers, on all pods.
+     *
+     * @return whether the Redis tier was cleared and other pods were notified, {@code false} when Redis was not
+     * available
+     */
+    public boolean clear(String cacheName) {
+        return nearCache(cacheName).clearShared();
+    }
+
+    private NearCache nearCache(String cacheName) {
+        var cache = (NearCache) getCache(cacheName);
+        if (cache == null) {
+            throw new IllegalArgumentException("Unknown cache " + cacheName);
+        }
+        return cache;
+    }
+
+    /**
+     * Registers reloader of entries of the cache, which are then refreshed ahead of their expiration.
+     */
+    public void registerReloader(String cacheName, CacheReloader reloader) {
+        reloaders.put(cacheName, reloader);
+    }
+
+    CacheReloader reloader(String cacheName) {
+        return reloaders.get(cacheName);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remoteCacheManager.getCacheNames();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        var body = new String(message.getBody(), StandardCharsets.UTF_8);
+        var originEnd = body.indexOf(SEPARATOR);
+        var cacheNameEnd = body.indexOf(SEPARATOR, originEnd + 1);
+        if (originEnd < 0 || cacheNameEnd < 0) {
+            log.warn("Ignoring malformed near cache invalidation message: {}", body);
+            return;
+        }
+        if (body.regionMatches(0, instanceId, 0, originEnd) && originEnd == instanceId.length()) {
+            return;
+        }
+        var cache = caches.get(body.substring(originEnd + 1, cacheNameEnd));
+        if (cache == null) {
+            return;
+        }
+        if (cacheNameEnd == body.length() - 1) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(body.substring(cacheNameEnd + 1));
+        }
+    }
+
+    /**
+     * @return whether the invalidation was published
+     */
+    boolean publishEviction(String cacheName, String localKey) {
+        return publish(instanceId + SEPARATOR + cacheName + SEPARATOR + localKey);
+    }
+
+    /**
+     * @return whether the invalidation was published
+     */
+    boolean publishClear(String cacheName) {
+        return publish(instanceId + SEPARATOR + cacheName + SEPARATOR);
+    }
+
+    private boolean publish(String message) {
+        try {
+            return circuitBreaker.call(() -> {
+                redisTemplate.convertAndSend(INVALIDATION_CHANNEL, message);
+                return true;
+            }, () -> false);
+        } catch (RuntimeException unexpected) {
+            log.warn("Unable to publish near cache invalidation", unexpected);
+            return false;
+        }
+    }
+}
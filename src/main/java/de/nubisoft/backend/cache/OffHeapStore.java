@@ -0,0 +1,264 @@
+package de.nubisoft.backend.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store keeping serialized values outside of the Java heap, in a direct buffer or in a memory-mapped file.
+ * <p>
+ * The buffer is used as a ring log: records are appended one after another and when the end is reached, writing
+ * starts over from the beginning, evicting the oldest records (FIFO eviction). Only the index (key to offset) lives
+ * on the heap. Entries older than {@code timeToLive} are not returned.
+ * <p>
+ * With a memory-mapped file the content survives restarts: on startup the file is scanned from the beginning as
+ * long as records are valid (magic and CRC) and their sequence numbers grow, which restores the records of the
+ * current lap of the ring.
+ * <p>
+ * A direct buffer counts against the JVM's limit of direct memory ({@code -XX:MaxDirectMemorySize}, the maximum heap by
+ * default), which is shared with network buffers of Redis connections and HTTP, so it may take half of it at most.
+ * <p>
+ * Record layout: magic, key length, value length (-1 for removal), sequence, write timestamp, CRC32, key, value.
+ */
+@Slf4j
+public class OffHeapStore implements DisposableBean {
+
+    private static final int RECORD_MAGIC = 0x0FF4EA9;
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 4 + 8 + 8 + 4;
+    private static final int REMOVED = -1;
+    private static final String MAX_DIRECT_MEMORY_OPTION = "-XX:MaxDirectMemorySize=";
+
+    private final ByteBuffer buffer;
+
+    private final Duration timeToLive;
+
+    private final Map<String, Entry> index = new HashMap<>();
+
+    private final TreeMap<Integer, String> keysByOffset = new TreeMap<>();
+
+    private int writeOffset;
+
+    private long sequence;
+
+    private record Entry(int offset, int valueOffset, int valueLength, long writtenAt) {
+    }
+
+    /**
+     * @param file          memory-mapped file keeping the content between restarts, {@code null} for a direct buffer
+     * @param capacityBytes size of the buffer, up to 2GB
+     * @param timeToLive    maximum age of returned entries
+     */
+    public OffHeapStore(Path file, long capacityBytes, Duration timeToLive) {
+        if (capacityBytes > Integer.MAX_VALUE || capacityBytes <= RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("Off-heap store capacity has to be between 1KB and 2GB, was " + capacityBytes);
+        }
+        this.timeToLive = timeToLive;
+        if (file == null) {
+            var maxDirectMemory = maxDirectMemory();
+            if (capacityBytes > maxDirectMemory / 2) {
+                throw new IllegalArgumentException("Off-heap store capacity " + capacityBytes + " exceeds half of the "
+                        + "maximum direct memory " + maxDirectMemory + ", lower it or raise -XX:MaxDirectMemorySize");
+            }
+            this.buffer = ByteBuffer.allocateDirect((int) capacityBytes);
+        } else {
+            this.buffer = map(file, (int) capacityBytes);
+            restore();
+        }
+    }
+
+    public synchronized byte[] get(String key) {
+        var entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.writtenAt() > timeToLive.toMillis()) {
+            removeFromIndex(key);
+            return null;
+        }
+        var value = new byte[entry.valueLength()];
+        buffer.get(entry.valueOffset(), value);
+        return value;
+    }
+
+    /**
+     * Stores the value, values which do not fit into the buffer are skipped.
+     */
+    public synchronized void put(String key, byte[] value) {
+        append(key, value);
+    }
+
+    public synchronized void remove(String key) {
+        if (index.containsKey(key)) {
+            append(key, null);
+        }
+    }
+
+    public synchronized void clear() {
+        index.keySet().stream().toList().forEach(key -> append(key, null));
+    }
+
+    public synchronized long size() {
+        return index.size();
+    }
+
+    public long capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Limit of direct memory of this JVM: {@code -XX:MaxDirectMemorySize} when set, otherwise the maximum heap (the JVM
+     * default).
+     */
+    static long maxDirectMemory() {
+        var maxDirectMemory = Runtime.getRuntime().maxMemory();
+        for (var argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith(MAX_DIRECT_MEMORY_OPTION)) {
+                // The last occurrence wins, as for the JVM itself
+                maxDirectMemory = parseSize(argument.substring(MAX_DIRECT_MEMORY_OPTION.length()));
+            }
+        }
+        return maxDirectMemory;
+    }
+
+    /**
+     * Parses a JVM size option value: bytes, optionally suffixed with k, m, g or t (case-insensitive).
+     */
+    static long parseSize(String value) {
+        var unit = Character.toLowerCase(value.charAt(value.length() - 1));
+        var shift = switch (unit) {
+            case 'k' -> 10;
+            case 'm' -> 20;
+            case 'g' -> 30;
+            case 't' -> 40;
+            default -> 0;
+        };
+        var number = shift == 0 ? value : value.substring(0, value.length() - 1);
+        return Long.parseLong(number) << shift;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (buffer instanceof MappedByteBuffer mappedBuffer) {
+            mappedBuffer.force();
+        }
+    }
+
+    private void append(String key, byte[] value) {
+        var keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        var valueLength = value == null ? 0 : value.length;
+        var recordLength = RECORD_HEADER_LENGTH + keyBytes.length + valueLength;
+        if (recordLength > buffer.capacity()) {
+            log.debug("Value of {} ({} bytes) does not fit into off-heap store", key, valueLength);
+            return;
+        }
+        if (writeOffset + recordLength > buffer.capacity()) {
+            if (writeOffset + 4 <= buffer.capacity()) {
+                // Marks the end of the current lap for the restore scan
+                buffer.putInt(writeOffset, 0);
+            }
+            evict(writeOffset, buffer.capacity());
+            writeOffset = 0;
+        }
+        evict(writeOffset, writeOffset + recordLength);
+
+        var writtenAt = System.currentTimeMillis();
+        var crc = new CRC32();
+        crc.update(keyBytes);
+        if (value != null) {
+            crc.update(value);
+        }
+        buffer.putInt(writeOffset, RECORD_MAGIC)
+                .putInt(writeOffset + 4, keyBytes.length)
+                .putInt(writeOffset + 8, value == null ? REMOVED : value.length)
+                .putLong(writeOffset + 12, ++sequence)
+                .putLong(writeOffset + 20, writtenAt)
+                .putInt(writeOffset + 28, (int) crc.getValue());
+        buffer.put(writeOffset + RECORD_HEADER_LENGTH, keyBytes);
+        if (value != null) {
+            buffer.put(writeOffset + RECORD_HEADER_LENGTH + keyBytes.length, value);
+        }
+
+        removeFromIndex(key);
+        if (value != null) {
+            index.put(key, new Entry(writeOffset, writeOffset + RECORD_HEADER_LENGTH + keyBytes.length, value.length, writtenAt));
+            keysByOffset.put(writeOffset, key);
+        }
+        writeOffset += recordLength;
+    }
+
+    private void evict(int fromOffset, int toOffset) {
+        var overwritten = keysByOffset.subMap(fromOffset, true, toOffset, false);
+        overwritten.values().forEach(index::remove);
+        overwritten.clear();
+    }
+
+    private void removeFromIndex(String key) {
+        var entry = index.remove(key);
+        if (entry != null) {
+            keysByOffset.remove(entry.offset());
+        }
+    }
+
+    private void restore() {
+        var offset = 0;
+        var restored = 0;
+        while (offset + RECORD_HEADER_LENGTH <= buffer.capacity() && buffer.getInt(offset) == RECORD_MAGIC) {
+            var keyLength = buffer.getInt(offset + 4);
+            var valueLength = buffer.getInt(offset + 8);
+            var recordSequence = buffer.getLong(offset + 12);
+            var recordLength = RECORD_HEADER_LENGTH + keyLength + Math.max(valueLength, 0);
+            if (keyLength < 0 || valueLength < REMOVED || recordSequence <= sequence
+                    || offset + recordLength > buffer.capacity() || !hasValidCrc(offset, keyLength, valueLength)) {
+                break;
+            }
+            var keyBytes = new byte[keyLength];
+            buffer.get(offset + RECORD_HEADER_LENGTH, keyBytes);
+            var key = new String(keyBytes, StandardCharsets.UTF_8);
+            removeFromIndex(key);
+            if (valueLength != REMOVED) {
+                index.put(key, new Entry(offset, offset + RECORD_HEADER_LENGTH + keyLength, valueLength, buffer.getLong(offset + 20)));
+                keysByOffset.put(offset, key);
+            }
+            sequence = recordSequence;
+            offset += recordLength;
+            restored++;
+        }
+        writeOffset = offset;
+        log.info("Restored {} off-heap records, {} entries", restored, index.size());
+    }
+
+    private boolean hasValidCrc(int offset, int keyLength, int valueLength) {
+        var crc = new CRC32();
+        crc.update(buffer.slice(offset + RECORD_HEADER_LENGTH, keyLength + Math.max(valueLength, 0)));
+        return (int) crc.getValue() == buffer.getInt(offset + 28);
+    }
+
+    private static MappedByteBuffer map(Path file, int capacityBytes) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Mapping stays valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+            }
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException("Unable to map off-heap store file " + file, unexpected);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package de.nubisoft.backend.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Redis access of programmatic caches, working on serialized values.
+ * <p>
+ * Values are large, so the operations are meant to use {@link LargeValueRedisConnections}, whose command timeout
+ * allows for their transfer.
+ * <p>
+ * Reads are pipelined: values of many keys (together with their remaining TTL) are read in one round trip per
+ * {@code batchSize} keys. Writes of loaded values can be done asynchronously (write-behind), so the caller does not
+ * wait for Redis after a load.
+ * <p>
+ * Asynchronous writes are not ordered with commands issued afterwards on other connections, e.g. release of a
+ * {@link SingleFlight} lease. Callers holding a lease pass the returned future to
+ * {@link SingleFlight#loadMissingWriteBehind}, which releases the lease only once the value is written, so pods
+ * waiting for the lease find it.
+ * <p>
+ * All calls go through {@link RedisCircuitBreaker}. While Redis is not available, written values are kept in a small
+ * local buffer (bounded by size and TTL) instead, and reads are served from it, so repeated requests do not call
+ * the loader again. The buffer is not written to Redis once it is available again, its values just expire.
+ */
+@Slf4j
+public class RedisCacheOperations {
+
+    /**
+     * Remaining TTL of a key which does not exist.
+     */
+    public static final long MISSING = -2;
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+
+    private final ReactiveRedisTemplate<String, byte[]> reactiveRedisTemplate;
+
+    private final int batchSize;
+
+    private final boolean writeBehind;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    private final Cache<String, byte[]> fallbackValues;
+
+    /**
+     * @param value           serialized value, {@code null} when the key does not exist
+     * @param remainingMillis remaining TTL, negative when the key does not exist or does not expire
+     */
+    public record CachedValue(byte[] value, long remainingMillis) {
+    }
+
+    /**
+     * Outcome of {@link #delete(String)}, {@code SKIPPED} when Redis was not available (the key might still exist).
+     */
+    public enum Deletion {DELETED, ABSENT, SKIPPED}
+
+    /**
+     * @param batchSize           maximum number of keys read in one pipeline
+     * @param writeBehind         whether {@link #set(String, byte[], Duration)} returns without waiting for Redis
+     * @param fallbackBudgetBytes maximum size of values kept locally while Redis is not available
+     * @param fallbackTimeToLive  maximum age of values kept locally while Redis is not available
+     */
+    public RedisCacheOperations(RedisConnectionFactory connectionFactory, ReactiveRedisConnectionFactory reactiveConnectionFactory,
+                                int batchSize, boolean writeBehind, RedisCircuitBreaker circuitBreaker,
+                                long fallbackBudgetBytes, Duration fallbackTimeToLive) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size has to be positive, was " + batchSize);
+        }
+        this.redisTemplate = new RedisTemplate<>();
+        this.redisTemplate.setConnectionFactory(connectionFactory);
+        this.redisTemplate.setKeySerializer(new StringRedisSerializer());
+        this.redisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        this.redisTemplate.afterPropertiesSet();
+        this.reactiveRedisTemplate = new ReactiveRedisTemplate<>(reactiveConnectionFactory,
+                RedisSerializationContext.<String, byte[]>newSerializationContext(new StringRedisSerializer())
+                        .value(RedisSerializer.byteArray())
+                        .build());
+        this.batchSize = batchSize;
+        this.writeBehind = writeBehind;
+        this.circuitBreaker = circuitBreaker;
+        this.fallbackValues = Caffeine.newBuilder()
+                .maximumWeight(fallbackBudgetBytes)
+                .<String, byte[]>weigher((key, value) -> 64 + 2 * key.length() + value.length)
+                .expireAfterWrite(fallbackTimeToLive)
+                .build();
+    }
+
+    /**
+     * Reads values of the keys together with their remaining TTL.
+     *
+     * @return cached values, in order of the keys
+     */
+    public List<CachedValue> getWithTtl(List<String> keys) {
+        return circuitBreaker.call(() -> readWithTtl(keys), () -> readFallback(keys));
+    }
+
+    private List<CachedValue> readWithTtl(List<String> keys) {
+        var cachedValues = new ArrayList<CachedValue>(keys.size());
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            var batch = keys.subList(from, Math.min(keys.size(), from + batchSize));
+            var results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (var key : batch) {
+                    var rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    connection.stringCommands().get(rawKey);
+                    connection.keyCommands().pTtl(rawKey);
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+            for (int i = 0; i < batch.size(); i++) {
+                var remainingMillis = (Long) results.get(2 * i + 1);
+                cachedValues.add(new CachedValue((byte[]) results.get(2 * i), remainingMillis == null ? MISSING : remainingMillis));
+            }
+        }
+        return cachedValues;
+    }
+
+    private List<CachedValue> readFallback(List<String> keys) {
+        // Remaining TTL is unknown, so fallback values are not refreshed ahead
+        return keys.stream()
+                .map(key -> new CachedValue(fallbackValues.getIfPresent(key), MISSING))
+                .toList();
+    }
+
+    public CachedValue getWithTtl(String key) {
+        return getWithTtl(List.of(key)).get(0);
+    }
+
+    /**
+     * Writes the value, asynchronously when write-behind is enabled.
+     *
+     * @return completes once the value is written to Redis, or kept locally when it could not be written
+     */
+    public CompletableFuture<Void> set(String key, byte[] value, Duration timeToLive) {
+        if (!writeBehind) {
+            circuitBreaker.call(() -> {
+                redisTemplate.opsForValue().set(key, value, timeToLive);
+                return null;
+            }, () -> {
+                fallbackValues.put(key, value);
+                return null;
+            });
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            fallbackValues.put(key, value);
+            return CompletableFuture.completedFuture(null);
+        }
+        var written = new CompletableFuture<Void>();
+        reactiveRedisTemplate.opsForValue().set(key, value, timeToLive)
+                .subscribe(result -> {
+                    circuitBreaker.onSuccess();
+                    written.complete(null);
+                }, failure -> {
+                    circuitBreaker.onFailure(failure);
+                    fallbackValues.put(key, value);
+                    log.warn("Write-behind of {} failed, it is kept locally", key, failure);
+                    written.complete(null);
+                });
+        return written;
+    }
+
+    public Deletion delete(String key) {
+        fallbackValues.invalidate(key);
+        return circuitBreaker.call(() -> Boolean.TRUE.equals(redisTemplate.delete(key)) ? Deletion.DELETED : Deletion.ABSENT,
+                () -> Deletion.SKIPPED);
+    }
+
+    /**
+     * Drops the value kept locally while Redis was not available, Redis is not called.
+     */
+    public void deleteLocal(String key) {
+        fallbackValues.invalidate(key);
+    }
+
+    /**
+     * Drops all values kept locally while Redis was not available, Redis is not called.
+     */
+    public void deleteAllLocal() {
+        fallbackValues.invalidateAll();
+    }
+}
@@ -0,0 +1,170 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker of cache access to Redis, keeping latency bounded while Redis is slow or down.
+ * <p>
+ * Every Redis call is bounded by the client command timeout ({@code spring.data.redis.timeout}). After
+ * {@code failureThreshold} consecutive failed calls the circuit opens: for {@code openDuration} Redis is not called at
+ * all, reads fall back to the caller's local cache or to the loader and writes are dropped (or kept locally by the
+ * caller). Afterwards a single trial call is let through (half-open), its success closes the circuit and its failure
+ * opens it again.
+ * <p>
+ * Only failures of Redis access ({@link DataAccessException}, e.g. connection failures and timeouts) count, other
+ * failures (e.g. of serialization) mean that Redis has answered.
+ * <p>
+ * The state is reported as the {@value #STATE_GAUGE_NAME} gauge (0 closed, 1 open, 2 half-open) and calls which were
+ * not attempted as the {@value #REJECTED_COUNTER_NAME} counter.
+ */
+@Slf4j
+public class RedisCircuitBreaker {
+
+    static final String STATE_GAUGE_NAME = "cache.redis.circuit.state";
+    static final String REJECTED_COUNTER_NAME = "cache.redis.circuit.rejected";
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final Counter rejectedCalls;
+
+    private volatile long openedAt;
+
+    public RedisCircuitBreaker(int failureThreshold, Duration openDuration, MeterRegistry meterRegistry) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Failure threshold has to be positive, was " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        Gauge.builder(STATE_GAUGE_NAME, state, current -> current.get().ordinal())
+                .description("State of the Redis circuit breaker: 0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+        this.rejectedCalls = Counter.builder(REJECTED_COUNTER_NAME)
+                .description("Redis calls which were not attempted because the circuit was open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Calls Redis unless the circuit is open.
+     *
+     * @param redisCall call of Redis
+     * @param fallback  result used when Redis is not called or the call fails
+     */
+    public <T> T call(Supplier<T> redisCall, Supplier<T> fallback) {
+        if (!tryAcquire()) {
+            return fallback.get();
+        }
+        T result;
+        try {
+            result = redisCall.get();
+        } catch (DataAccessException failure) {
+            onFailure(failure);
+            return fallback.get();
+        } catch (RuntimeException | Error otherFailure) {
+            onSuccess();
+            throw otherFailure;
+        }
+        onSuccess();
+        return result;
+    }
+
+    /**
+     * Reactive variant of {@link #call(Supplier, Supplier)}, the call is attempted on subscription.
+     *
+     * @param redisCall call of Redis
+     * @param fallback  result used when Redis is not called or the call fails
+     */
+    public <T> Mono<T> call(Mono<T> redisCall, Mono<T> fallback) {
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                return fallback;
+            }
+            return redisCall
+                    .doOnSuccess(result -> onSuccess())
+                    .doOnCancel(this::onCancel)
+                    .onErrorResume(failure -> {
+                        onFailure(failure);
+                        return failure instanceof DataAccessException ? fallback : Mono.error(failure);
+                    });
+        });
+    }
+
+    /**
+     * Calls Redis unless the circuit is open, failed and skipped calls are dropped.
+     */
+    public void run(Runnable redisCall) {
+        call(() -> {
+            redisCall.run();
+            return null;
+        }, () -> null);
+    }
+
+    public boolean isOpen() {
+        return state.get() != State.CLOSED;
+    }
+
+    /**
+     * Whether Redis may be called now, every permitted call has to be followed by {@link #onSuccess()} or
+     * {@link #onFailure(Throwable)}.
+     */
+    boolean tryAcquire() {
+        var permitted = switch (state.get()) {
+            case CLOSED -> true;
+            case OPEN -> System.nanoTime() - openedAt >= openDurationNanos && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            // The trial call is in flight
+            case HALF_OPEN -> false;
+        };
+        if (!permitted) {
+            rejectedCalls.increment();
+        }
+        return permitted;
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            log.info("Redis is available again, closing the circuit");
+        }
+    }
+
+    /**
+     * Records a permitted call which was abandoned before Redis answered: a cancelled trial call lets the next call
+     * through as the trial.
+     */
+    void onCancel() {
+        state.compareAndSet(State.HALF_OPEN, State.OPEN);
+    }
+
+    /**
+     * Records failure of a call, only failures of Redis access count.
+     */
+    void onFailure(Throwable failure) {
+        if (!(failure instanceof DataAccessException)) {
+            onSuccess();
+            return;
+        }
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            if (state.getAndSet(State.OPEN) == State.CLOSED) {
+                log.warn("Redis is not available, opening the circuit for {} ms", Duration.ofNanos(openDurationNanos).toMillis(), failure);
+            }
+        }
+    }
+}
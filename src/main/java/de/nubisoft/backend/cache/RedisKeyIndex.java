@@ -0,0 +1,131 @@
+package de.nubisoft.backend.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * Set index of Redis keys of every cache, so a whole cache can be evicted without scanning the keyspace
+ * ({@code KEYS} or {@code SCAN}).
+ * <p>
+ * Keys of a cache are members of the {@value #INDEX_KEY_PREFIX}{@code <cache name>} set. Keys are added
+ * asynchronously when entries are written and the index expires together with the latest written entry, so it does
+ * not outlive the cache. Members whose entries have expired meanwhile stay in the index until it expires or the cache
+ * is evicted, deleting them is a no-op.
+ * <p>
+ * Entries written before the index was introduced are not indexed, they just expire.
+ */
+@Slf4j
+public class RedisKeyIndex {
+
+    static final String INDEX_KEY_PREFIX = "cache-index:";
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    private final int batchSize;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    /**
+     * @param batchSize maximum number of keys deleted in one call
+     */
+    public RedisKeyIndex(StringRedisTemplate redisTemplate, ReactiveRedisConnectionFactory reactiveConnectionFactory,
+                         int batchSize, RedisCircuitBreaker circuitBreaker) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size has to be positive, was " + batchSize);
+        }
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = new ReactiveStringRedisTemplate(reactiveConnectionFactory);
+        this.batchSize = batchSize;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Adds the key to the index of the cache, asynchronously.
+     *
+     * @param timeToLive TTL of the written entry, {@code null} when it does not expire
+     */
+    public void add(String cacheName, String redisKey, Duration timeToLive) {
+        if (!circuitBreaker.tryAcquire()) {
+            return;
+        }
+        var indexKey = indexKey(cacheName);
+        var added = reactiveRedisTemplate.opsForSet().add(indexKey, redisKey);
+        var indexed = timeToLive == null || timeToLive.isZero()
+                ? added.thenReturn(true)
+                : added.then(reactiveRedisTemplate.expire(indexKey, timeToLive));
+        indexed.subscribe(expiring -> circuitBreaker.onSuccess(), failure -> {
+            circuitBreaker.onFailure(failure);
+            log.warn("Unable to index {} of {}, it is left to expire", redisKey, cacheName, failure);
+        });
+    }
+
+    /**
+     * Number of indexed keys of the cache, an upper bound of its entries as expired entries stay indexed for a while.
+     *
+     * @return {@link Double#NaN} when Redis is not available
+     */
+    public double size(String cacheName) {
+        return circuitBreaker.call(() -> {
+            var size = redisTemplate.opsForSet().size(indexKey(cacheName));
+            return size == null ? Double.NaN : size.doubleValue();
+        }, () -> Double.NaN);
+    }
+
+    /**
+     * Deletes all indexed keys of the cache, in batches of {@code batchSize} keys. Nothing is deleted while Redis is
+     * not available, the entries are then left to expire.
+     *
+     * @return number of deleted keys, empty when Redis was not available
+     */
+    public OptionalLong clear(String cacheName) {
+        return circuitBreaker.call(() -> OptionalLong.of(deleteIndexed(cacheName)), () -> {
+            log.warn("Redis is not available, keys of {} are left to expire", cacheName);
+            return OptionalLong.empty();
+        });
+    }
+
+    /**
+     * Same as {@link #clear(String)}, but not guarded by the circuit breaker: the caller is, failures are thrown.
+     */
+    long deleteIndexed(String cacheName) {
+        var indexKey = indexKey(cacheName);
+        var deleted = 0L;
+        var batch = new ArrayList<String>(batchSize);
+        try (var members = redisTemplate.opsForSet().scan(indexKey, ScanOptions.scanOptions().count(batchSize).build())) {
+            while (members.hasNext()) {
+                batch.add(members.next());
+                if (batch.size() == batchSize) {
+                    deleted += delete(indexKey, batch);
+                    batch.clear();
+                }
+            }
+        }
+        deleted += delete(indexKey, batch);
+        log.info("Deleted {} keys of {}", deleted, cacheName);
+        return deleted;
+    }
+
+    private long delete(String indexKey, List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        var deleted = redisTemplate.delete(keys);
+        // Only deleted members are removed, keys indexed meanwhile stay indexed
+        redisTemplate.opsForSet().remove(indexKey, keys.toArray());
+        return deleted == null ? 0 : deleted;
+    }
+
+    static String indexKey(String cacheName) {
+        return INDEX_KEY_PREFIX + cacheName;
+    }
+}
@@ -0,0 +1,273 @@
+package de.nubisoft.backend.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing (single-flight) for cache loads, working both within a pod and across pods.
+ * <p>
+ * Within a pod, concurrent callers asking for the same key share one in-flight future, so the loader is executed
+ * only by the first caller (the leader), on the leader's own thread.
+ * Across pods, the leader has to acquire a short-lived Redis lease first. Pods which could not acquire it
+ * poll the cache until the value shows up or the lease is released or expires ({@code leaseTime}), whichever comes
+ * first. Callers within the pod wait for the leader's result for as long as the leader may take: one lease time
+ * waiting for another pod plus one for its own load.
+ * <p>
+ * Loaders which store the value asynchronously ({@link #loadMissingWriteBehind}) keep the lease until the store
+ * completes, otherwise pods waiting for the lease would miss the value and load it once more.
+ * <p>
+ * Failures are never shared: when the leader fails, waiters fall back to loading on their own.
+ * When Redis is not reachable (or the {@link RedisCircuitBreaker} is open) no lease can be acquired: the leader then
+ * loads without it and loads are coalesced within the pod only, so every pod loads the key at most once.
+ * <p>
+ * Background refreshes of stale entries take part in the same coalescing, but never wait: when the key is already
+ * being loaded or refreshed anywhere, the refresh is skipped.
+ */
+@Slf4j
+public class SingleFlight {
+
+    private static final String LEASE_KEY_PREFIX = "single-flight:";
+
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Duration leaseTime;
+
+    private final Duration pollInterval;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Value of a loader which stores it asynchronously.
+     *
+     * @param value  loaded value
+     * @param stored completes once the value is stored, or its store has failed
+     */
+    public record Stored<T>(T value, CompletionStage<?> stored) {
+    }
+
+    private enum Lease {
+        ACQUIRED,
+        HELD_BY_OTHER,
+        // Redis is not available, nobody can coordinate across pods
+        UNAVAILABLE
+    }
+
+    public SingleFlight(StringRedisTemplate redisTemplate, Duration leaseTime, Duration pollInterval,
+                        RedisCircuitBreaker circuitBreaker) {
+        this.redisTemplate = redisTemplate;
+        this.leaseTime = leaseTime;
+        this.pollInterval = pollInterval;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns value found by {@code lookup} or, on a miss, value produced by {@code loader}, making sure only one
+     * caller across all pods executes the loader at a time.
+     *
+     * @param key    globally unique key, e.g. cache name followed by the cache key
+     * @param lookup cache lookup, returns {@code null} on a miss
+     * @param loader loads the value and stores it in the cache
+     * @return cached or loaded value
+     */
+    public <T> T load(String key, Supplier<T> lookup, Supplier<T> loader) {
+        var cached = lookup.get();
+        if (cached != null) {
+            return cached;
+        }
+        return loadMissing(key, lookup, loader);
+    }
+
+    /**
+     * Same as {@link #load(String, Supplier, Supplier)} for callers which have just looked the key up and missed:
+     * the key is not looked up again before the loader is executed, {@code lookup} is used only while waiting for
+     * another caller.
+     */
+    public <T> T loadMissing(String key, Supplier<T> lookup, Supplier<T> loader) {
+        return loadMissingStored(key, lookup, () -> new Stored<>(loader.get(), CompletableFuture.completedFuture(null)));
+    }
+
+    /**
+     * Same as {@link #loadMissing(String, Supplier, Supplier)} for loaders which store the value asynchronously: the
+     * lease is released only once the value is stored. Callers within the pod get the value right away.
+     */
+    public <T> T loadMissingWriteBehind(String key, Supplier<T> lookup, Supplier<Stored<T>> loader) {
+        return loadMissingStored(key, lookup, loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T loadMissingStored(String key, Supplier<T> lookup, Supplier<Stored<T>> loader) {
+        var leaderFuture = new CompletableFuture<Object>();
+        var inFlightFuture = inFlight.putIfAbsent(key, leaderFuture);
+        if (inFlightFuture != null) {
+            return (T) await(key, inFlightFuture, lookup, loader);
+        }
+        try {
+            var value = loadAcrossPods(key, lookup, loader);
+            leaderFuture.complete(value);
+            return value;
+        } catch (RuntimeException | Error failure) {
+            leaderFuture.completeExceptionally(failure);
+            throw failure;
+        } finally {
+            inFlight.remove(key, leaderFuture);
+        }
+    }
+
+    /**
+     * Executes {@code refresh} unless the key is being loaded or refreshed in this or another pod at the moment.
+     *
+     * @param key     globally unique key, the same as passed to {@link #load(String, Supplier, Supplier)}
+     * @param refresh reloads the value and stores it in the cache
+     * @return whether the refresh was executed
+     */
+    public boolean refresh(String key, Runnable refresh) {
+        var leaderFuture = new CompletableFuture<Object>();
+        if (inFlight.putIfAbsent(key, leaderFuture) != null) {
+            return false;
+        }
+        var leaseKey = LEASE_KEY_PREFIX + key;
+        try {
+            var lease = tryAcquireLease(leaseKey);
+            if (lease == Lease.HELD_BY_OTHER) {
+                return false;
+            }
+            try {
+                refresh.run();
+                return true;
+            } finally {
+                if (lease == Lease.ACQUIRED) {
+                    releaseLease(leaseKey);
+                }
+            }
+        } finally {
+            // Refresh does not produce a value for waiters, they look the refreshed value up on their own
+            leaderFuture.complete(null);
+            inFlight.remove(key, leaderFuture);
+        }
+    }
+
+    private <T> Object await(String key, CompletableFuture<Object> inFlightFuture, Supplier<T> lookup,
+                             Supplier<Stored<T>> loader) {
+        // Leader waits at most one lease time for another pod and then loads within its own lease
+        var maxWait = leaseTime.multipliedBy(2);
+        try {
+            var value = inFlightFuture.get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            if (value != null) {
+                return value;
+            }
+        } catch (ExecutionException leaderFailure) {
+            log.debug("In-flight load failed, loading on our own. Key: {}", key);
+        } catch (TimeoutException timeout) {
+            log.warn("In-flight load did not finish within {}, loading on our own. Key: {}", maxWait, key);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for in-flight load of " + key, interrupted);
+        }
+        var cached = lookup.get();
+        return cached != null ? cached : loader.get().value();
+    }
+
+    private <T> T loadAcrossPods(String key, Supplier<T> lookup, Supplier<Stored<T>> loader) {
+        var leaseKey = LEASE_KEY_PREFIX + key;
+        // The holder's lease expires by then at the latest, so we are able to acquire it unless another pod was faster
+        var deadline = System.nanoTime() + leaseTime.toNanos() + pollInterval.toNanos();
+        Lease lease;
+        var waited = false;
+        while ((lease = tryAcquireLease(leaseKey)) == Lease.HELD_BY_OTHER) {
+            waited = true;
+            sleep(pollInterval);
+            var cached = lookup.get();
+            if (cached != null) {
+                return cached;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                log.warn("Lease {} was not released within {}, loading on our own", leaseKey, leaseTime);
+                return loader.get().value();
+            }
+        }
+        if (lease == Lease.UNAVAILABLE) {
+            return loader.get().value();
+        }
+        Stored<T> stored = null;
+        try {
+            if (waited) {
+                // Previous holder has released the lease, but it might have stored the value just before
+                var cached = lookup.get();
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            // Otherwise the key was looked up right before, a value stored in between costs one more load at most
+            stored = loader.get();
+            return stored.value();
+        } finally {
+            if (stored == null) {
+                releaseLease(leaseKey);
+            } else {
+                releaseLeaseWhenStored(leaseKey, stored.stored().toCompletableFuture());
+            }
+        }
+    }
+
+    private void releaseLeaseWhenStored(String leaseKey, CompletableFuture<?> stored) {
+        if (stored.isDone()) {
+            releaseLease(leaseKey);
+            return;
+        }
+        // Not on the thread completing the store, which may be an I/O thread of the Redis client; the lease expires
+        // on its own should the store never complete
+        stored.whenCompleteAsync((result, failure) -> releaseLease(leaseKey));
+    }
+
+    private Lease tryAcquireLease(String leaseKey) {
+        try {
+            return circuitBreaker.call(
+                    () -> Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(leaseKey, instanceId, leaseTime))
+                            ? Lease.ACQUIRED
+                            : Lease.HELD_BY_OTHER,
+                    () -> Lease.UNAVAILABLE);
+        } catch (RuntimeException unexpected) {
+            log.warn("Unable to acquire lease {}, loading without it", leaseKey, unexpected);
+            return Lease.UNAVAILABLE;
+        }
+    }
+
+    private void releaseLease(String leaseKey) {
+        try {
+            circuitBreaker.run(() -> redisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), instanceId));
+        } catch (RuntimeException unexpected) {
+            log.warn("Unable to release lease {}, it will expire after {}", leaseKey, leaseTime, unexpected);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for lease", interrupted);
+        }
+    }
+}
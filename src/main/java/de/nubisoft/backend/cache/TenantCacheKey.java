@@ -0,0 +1,101 @@
+package de.nubisoft.backend.cache;
+
+import org.springframework.core.convert.converter.Converter;
+
+/**
+ * Immutable cache key of a tenant (e.g. the logged doctor) and method parameters.
+ * <p>
+ * The key is encoded once, when created, into a short string: the tenant followed by the parameters, separated by
+ * {@value #SEPARATOR} (occurrences of the separator and of {@value #ESCAPE} within values are escaped), e.g.
+ * {@code 1:5}. The encoded form is the tenant prefix of the Redis key (through {@link RedisKeyConverter}), the near
+ * cache key and the base of the hash code, so none of them is computed again on lookups. Parameters are encoded by
+ * {@link String#valueOf(Object)}, so they should have a stable, unambiguous string form.
+ */
+public final class TenantCacheKey {
+
+    private static final char SEPARATOR = ':';
+    private static final char ESCAPE = '\\';
+
+    private final String tenant;
+
+    private final Object[] params;
+
+    private final String encoded;
+
+    private final int hash;
+
+    public TenantCacheKey(String tenant, Object... params) {
+        this.tenant = tenant;
+        this.params = params.clone();
+        this.encoded = encode(tenant, params);
+        this.hash = encoded.hashCode();
+    }
+
+    public String tenant() {
+        return tenant;
+    }
+
+    public Object[] params() {
+        return params.clone();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other
+                || other instanceof TenantCacheKey otherKey && hash == otherKey.hash && encoded.equals(otherKey.encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return encoded form of the key
+     */
+    @Override
+    public String toString() {
+        return encoded;
+    }
+
+    private static String encode(String tenant, Object[] params) {
+        var values = new String[params.length];
+        var length = tenant.length() + params.length;
+        for (int i = 0; i < params.length; i++) {
+            values[i] = String.valueOf(params[i]);
+            length += values[i].length();
+        }
+        var encoded = new StringBuilder(length);
+        appendEscaped(encoded, tenant);
+        for (var value : values) {
+            appendEscaped(encoded.append(SEPARATOR), value);
+        }
+        return encoded.toString();
+    }
+
+    private static void appendEscaped(StringBuilder encoded, String value) {
+        if (value.indexOf(SEPARATOR) < 0 && value.indexOf(ESCAPE) < 0) {
+            encoded.append(value);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            var character = value.charAt(i);
+            if (character == SEPARATOR || character == ESCAPE) {
+                encoded.append(ESCAPE);
+            }
+            encoded.append(character);
+        }
+    }
+
+    /**
+     * Converts keys into their encoded form when Redis cache keys are created, registered with
+     * {@link org.springframework.data.redis.cache.RedisCacheConfiguration#addCacheKeyConverter(Converter)}.
+     */
+    public static final class RedisKeyConverter implements Converter<TenantCacheKey, String> {
+
+        @Override
+        public String convert(TenantCacheKey key) {
+            return key.encoded;
+        }
+    }
+}
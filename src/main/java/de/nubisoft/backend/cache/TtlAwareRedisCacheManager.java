@@ -0,0 +1,85 @@
+package de.nubisoft.backend.cache;
+
+import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.cache.RedisCacheWriter;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link RedisCacheManager} creating {@link TtlAwareRedisCache}s, which read entries together with their remaining
+ * TTL, so entries can be refreshed ahead of their expiration.
+ * <p>
+ * Keys of written entries are indexed by {@link RedisKeyIndex}, clearing a cache deletes the indexed keys. Chunks of
+ * {@link DocumentChunkStore} are published before every write.
+ */
+public class TtlAwareRedisCacheManager extends RedisCacheManager {
+
+    private final RedisCacheWriter cacheWriter;
+
+    private final RedisCacheConfiguration defaultCacheConfiguration;
+
+    private final RedisConnectionFactory connectionFactory;
+
+    public TtlAwareRedisCacheManager(RedisConnectionFactory connectionFactory, RedisCacheConfiguration defaultCacheConfiguration,
+                                     Map<String, RedisCacheConfiguration> initialCacheConfigurations, RedisKeyIndex keyIndex,
+                                     DocumentChunkStore chunkStore) {
+        this(new IndexingRedisCacheWriter(RedisCacheWriter.nonLockingRedisCacheWriter(connectionFactory), keyIndex, chunkStore),
+                defaultCacheConfiguration, initialCacheConfigurations, connectionFactory);
+    }
+
+    private TtlAwareRedisCacheManager(RedisCacheWriter cacheWriter, RedisCacheConfiguration defaultCacheConfiguration,
+                                      Map<String, RedisCacheConfiguration> initialCacheConfigurations,
+                                      RedisConnectionFactory connectionFactory) {
+        super(cacheWriter, defaultCacheConfiguration, initialCacheConfigurations);
+        this.cacheWriter = cacheWriter;
+        this.defaultCacheConfiguration = defaultCacheConfiguration;
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    protected RedisCache createRedisCache(String name, RedisCacheConfiguration cacheConfiguration) {
+        return new TtlAwareRedisCache(name, cacheWriter, cacheConfiguration != null ? cacheConfiguration : defaultCacheConfiguration,
+                connectionFactory);
+    }
+
+    static class TtlAwareRedisCache extends RedisCache {
+
+        private final RedisConnectionFactory connectionFactory;
+
+        /**
+         * @param value           cached value, {@code null} on a miss
+         * @param remainingMillis remaining TTL of the entry, negative when it does not exist or does not expire
+         */
+        record ValueWithTtl(ValueWrapper value, long remainingMillis) {
+        }
+
+        TtlAwareRedisCache(String name, RedisCacheWriter cacheWriter, RedisCacheConfiguration cacheConfiguration,
+                           RedisConnectionFactory connectionFactory) {
+            super(name, cacheWriter, cacheConfiguration);
+            this.connectionFactory = connectionFactory;
+        }
+
+        /**
+         * Reads the entry together with its remaining TTL, pipelined in one round trip. Cache statistics are not
+         * recorded, the caller records its own.
+         */
+        ValueWithTtl getWithTtl(Object key) {
+            var rawKey = serializeCacheKey(createCacheKey(key));
+            List<Object> results;
+            try (var connection = connectionFactory.getConnection()) {
+                connection.openPipeline();
+                connection.stringCommands().get(rawKey);
+                connection.keyCommands().pTtl(rawKey);
+                results = connection.closePipeline();
+            }
+            var value = (byte[]) results.get(0);
+            var remainingMillis = (Long) results.get(1);
+            return new ValueWithTtl(value == null ? null : toValueWrapper(deserializeCacheValue(value)),
+                    remainingMillis == null ? -1 : remainingMillis);
+        }
+    }
+}
@@ -1,41 +1,228 @@
 package de.nubisoft.backend.configuration;
 
-import org.springframework.cache.CacheManager;
+import de.nubisoft.backend.cache.CacheMetrics;
+import de.nubisoft.backend.cache.CacheRefresher;
+import de.nubisoft.backend.cache.CompactRedisSerializers;
+import de.nubisoft.backend.cache.DocumentChunkStore;
+import de.nubisoft.backend.cache.LargeValueRedisConnections;
+import de.nubisoft.backend.cache.MemoryAwareCaches;
+import de.nubisoft.backend.cache.NearCacheManager;
+import de.nubisoft.backend.cache.OffHeapStore;
+import de.nubisoft.backend.cache.RedisCacheOperations;
+import de.nubisoft.backend.cache.RedisCircuitBreaker;
+import de.nubisoft.backend.cache.RedisKeyIndex;
+import de.nubisoft.backend.cache.SingleFlight;
+import de.nubisoft.backend.cache.TenantCacheKey;
+import de.nubisoft.backend.cache.TtlAwareRedisCacheManager;
+import de.nubisoft.backend.domain.PatientDocumentsResponse;
+import de.nubisoft.backend.service.CacheInvalidationService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
-import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
 import java.time.Duration;
+import java.util.Map;
 
 /**
  * Cache configuration class
  */
 @Configuration
 @EnableCaching
+@EnableConfigurationProperties({NearCacheProperties.class, SingleFlightProperties.class, FetchProperties.class,
+        SerializationProperties.class, ChunkStoreProperties.class, LocalCacheProperties.class,
+        OffHeapProperties.class, RefreshProperties.class, WarmUpProperties.class,
+        PatientDirectoryProperties.class, RedisAccessProperties.class, HttpCachingProperties.class,
+        InvalidationProperties.class})
 public class CachingConfiguration {
 
     public final int cacheTtlSeconds = 30;
 
+    public static final String PATIENTS_DOCUMENTS_CACHE_NAME_V4 = "patient-documents-v4:";
     public static final String PATIENTS_DOCUMENTS_CACHE_NAME_V5 = "patient-documents-v5:";
     public static final String PATIENTS_DOCUMENTS_CACHE_NAME_V6 = "patient-documents-v6:";
+    public static final String PATIENTS_DOCUMENTS_CACHE_NAME_V8 = "patient-documents-v8:";
+    public static final String PATIENTS_DOCUMENTS_OFF_HEAP_CACHE_NAME = "patient-documents-v3-off-heap";
 
+    /**
+     * Two-tier cache manager: pod local Caffeine cache in front of the shared Redis cache, refreshing entries ahead
+     * of their expiration.
+     */
     @Bean
-    CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory) {
-        return RedisCacheManager.RedisCacheManagerBuilder.fromConnectionFactory(redisConnectionFactory)
-                .withCacheConfiguration(PATIENTS_DOCUMENTS_CACHE_NAME_V5, cacheConfiguration().entryTtl(Duration.ofSeconds(cacheTtlSeconds)))
-                .withCacheConfiguration(PATIENTS_DOCUMENTS_CACHE_NAME_V6, cacheConfiguration().entryTtl(Duration.ofSeconds(cacheTtlSeconds)))
-                .build();
+    NearCacheManager cacheManager(LargeValueRedisConnections largeValueRedisConnections, StringRedisTemplate stringRedisTemplate,
+                                  NearCacheProperties nearCacheProperties, SingleFlight singleFlight,
+                                  CompactRedisSerializers compactRedisSerializers, MeterRegistry meterRegistry,
+                                  CacheRefresher cacheRefresher, RedisCircuitBreaker redisCircuitBreaker,
+                                  RedisKeyIndex redisKeyIndex, MemoryAwareCaches memoryAwareCaches,
+                                  DocumentChunkStore documentChunkStore) {
+        new CacheMetrics(meterRegistry, PATIENTS_DOCUMENTS_CACHE_NAME_V5).registerRedisSize(redisKeyIndex);
+        new CacheMetrics(meterRegistry, PATIENTS_DOCUMENTS_CACHE_NAME_V6).registerRedisSize(redisKeyIndex);
+        return new NearCacheManager(redisCacheManager(largeValueRedisConnections.connectionFactory(), compactRedisSerializers,
+                redisKeyIndex, documentChunkStore), stringRedisTemplate,
+                memoryAwareCaches, CachingConfiguration::estimatedValueBytes, nearCacheProperties.timeToLive(), singleFlight,
+                meterRegistry, cacheRefresher, redisCircuitBreaker);
     }
 
-    static RedisCacheConfiguration cacheConfiguration() {
+    /**
+     * Rough estimate of heap occupied by a value of annotation based caches.
+     */
+    static int estimatedValueBytes(Object value) {
+        if (value instanceof PatientDocumentsResponse response) {
+            return 64 + response.documents().stream().mapToInt(MemoryAwareCaches::stringBytes).sum();
+        }
+        return 1024;
+    }
+
+    /**
+     * Stops calling Redis for a while when it is slow or down, so caches fall back to local storage or loaders.
+     */
+    @Bean
+    RedisCircuitBreaker redisCircuitBreaker(RedisAccessProperties redisAccessProperties, MeterRegistry meterRegistry) {
+        return new RedisCircuitBreaker(redisAccessProperties.failureThreshold(), redisAccessProperties.openDuration(), meterRegistry);
+    }
+
+    /**
+     * Background reloads of entries accessed after their soft TTL.
+     */
+    @Bean
+    CacheRefresher cacheRefresher(RefreshProperties refreshProperties) {
+        return new CacheRefresher(refreshProperties.softTtlRatio(), refreshProperties.threads(), refreshProperties.queueCapacity());
+    }
+
+    /**
+     * Coalesces cache loads of the same key within a pod and across pods.
+     */
+    @Bean
+    SingleFlight singleFlight(StringRedisTemplate stringRedisTemplate, SingleFlightProperties singleFlightProperties,
+                              RedisCircuitBreaker redisCircuitBreaker) {
+        return new SingleFlight(stringRedisTemplate, singleFlightProperties.leaseTime(),
+                singleFlightProperties.pollInterval(), redisCircuitBreaker);
+    }
+
+    /**
+     * Compact, compressed serialization of cached documents, enabled per cache name.
+     */
+    @Bean
+    CompactRedisSerializers compactRedisSerializers(SerializationProperties serializationProperties, DocumentChunkStore documentChunkStore,
+                                                    MeterRegistry meterRegistry) {
+        return new CompactRedisSerializers(serializationProperties.compactCaches(), serializationProperties.compressionLevel(),
+                documentChunkStore, meterRegistry);
+    }
+
+    /**
+     * Connections for large cached values, with a longer command timeout than the auto-configured ones.
+     */
+    @Bean
+    LargeValueRedisConnections largeValueRedisConnections(RedisProperties redisProperties,
+                                                          RedisAccessProperties redisAccessProperties) {
+        return new LargeValueRedisConnections(redisProperties, redisAccessProperties.largeValueTimeout());
+    }
+
+    /**
+     * Pipelined Redis access with write-behind, used by programmatic caches.
+     */
+    @Bean
+    RedisCacheOperations redisCacheOperations(LargeValueRedisConnections largeValueRedisConnections,
+                                              RedisAccessProperties redisAccessProperties, RedisCircuitBreaker redisCircuitBreaker) {
+        return new RedisCacheOperations(largeValueRedisConnections.connectionFactory(),
+                largeValueRedisConnections.reactiveConnectionFactory(),
+                redisAccessProperties.batchSize(), redisAccessProperties.writeBehind(), redisCircuitBreaker,
+                redisAccessProperties.fallbackBudget().toBytes(), redisAccessProperties.fallbackTimeToLive());
+    }
+
+    /**
+     * Set index of Redis keys of every cache, so whole caches are evicted without scanning the keyspace.
+     */
+    @Bean
+    RedisKeyIndex redisKeyIndex(StringRedisTemplate stringRedisTemplate, ReactiveRedisConnectionFactory reactiveRedisConnectionFactory,
+                                RedisAccessProperties redisAccessProperties, RedisCircuitBreaker redisCircuitBreaker) {
+        return new RedisKeyIndex(stringRedisTemplate, reactiveRedisConnectionFactory, redisAccessProperties.batchSize(),
+                redisCircuitBreaker);
+    }
+
+    /**
+     * Content-addressed store of document content shared by all cached entries.
+     */
+    @Bean
+    DocumentChunkStore documentChunkStore(LargeValueRedisConnections largeValueRedisConnections,
+                                          ChunkStoreProperties chunkStoreProperties, RedisCircuitBreaker redisCircuitBreaker) {
+        // Chunks are large values themselves
+        return new DocumentChunkStore(new StringRedisTemplate(largeValueRedisConnections.connectionFactory()),
+                chunkStoreProperties.localBudget().toBytes(),
+                chunkStoreProperties.timeToLive(), redisCircuitBreaker);
+    }
+
+    /**
+     * Memory budgeted in-process caches, shrinking under heap pressure.
+     */
+    @Bean
+    MemoryAwareCaches memoryAwareCaches(LocalCacheProperties localCacheProperties, MeterRegistry meterRegistry) {
+        return new MemoryAwareCaches(localCacheProperties.budgetBytes(Runtime.getRuntime().maxMemory()),
+                localCacheProperties.softValues(), localCacheProperties.pressureThreshold(), localCacheProperties.shrinkFactor(),
+                meterRegistry);
+    }
+
+    /**
+     * Off-heap tier for serialized documents, optionally backed by a memory-mapped file surviving restarts.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "caching.off-heap.enabled", havingValue = "true")
+    OffHeapStore offHeapStore(OffHeapProperties offHeapProperties, MeterRegistry meterRegistry) {
+        var offHeapStore = new OffHeapStore(offHeapProperties.file(), offHeapProperties.capacity().toBytes(), offHeapProperties.timeToLive());
+        Gauge.builder("cache.size", offHeapStore, OffHeapStore::size)
+                .tag("cache", PATIENTS_DOCUMENTS_OFF_HEAP_CACHE_NAME)
+                .description("Number of entries in the off-heap store")
+                .register(meterRegistry);
+        return offHeapStore;
+    }
+
+    /**
+     * Invalidations of near caches and of local caches of other pods.
+     */
+    @Bean
+    RedisMessageListenerContainer cacheInvalidationListenerContainer(RedisConnectionFactory redisConnectionFactory,
+                                                                     NearCacheManager cacheManager,
+                                                                     CacheInvalidationService cacheInvalidationService) {
+        var container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(cacheManager, new ChannelTopic(NearCacheManager.INVALIDATION_CHANNEL));
+        container.addMessageListener(cacheInvalidationService, new ChannelTopic(CacheInvalidationService.INVALIDATION_CHANNEL));
+        return container;
+    }
+
+    TtlAwareRedisCacheManager redisCacheManager(RedisConnectionFactory redisConnectionFactory, CompactRedisSerializers compactRedisSerializers,
+                                                RedisKeyIndex redisKeyIndex, DocumentChunkStore documentChunkStore) {
+        var v5Serializer = compactRedisSerializers.forCache(PATIENTS_DOCUMENTS_CACHE_NAME_V5, new GenericJackson2JsonRedisSerializer());
+        var v6Serializer = compactRedisSerializers.forCache(PATIENTS_DOCUMENTS_CACHE_NAME_V6, new GenericJackson2JsonRedisSerializer());
+        // Tenant keys are short strings already and the cache name ends with a separator: patient-documents-v6:<doctor>:<patient>
+        var v6Configuration = cacheConfiguration(v6Serializer).entryTtl(Duration.ofSeconds(cacheTtlSeconds))
+                .computePrefixWith(cacheName -> cacheName);
+        v6Configuration.addCacheKeyConverter(new TenantCacheKey.RedisKeyConverter());
+        var redisCacheManager = new TtlAwareRedisCacheManager(redisConnectionFactory, RedisCacheConfiguration.defaultCacheConfig(), Map.of(
+                PATIENTS_DOCUMENTS_CACHE_NAME_V5, cacheConfiguration(v5Serializer).entryTtl(Duration.ofSeconds(cacheTtlSeconds)),
+                PATIENTS_DOCUMENTS_CACHE_NAME_V6, v6Configuration), redisKeyIndex, documentChunkStore);
+        // Not exposed as a bean, so configured caches have to be initialized manually
+        redisCacheManager.afterPropertiesSet();
+        return redisCacheManager;
+    }
+
+    static RedisCacheConfiguration cacheConfiguration(RedisSerializer<Object> valueSerializer) {
         return RedisCacheConfiguration.defaultCacheConfig()
                 .disableCachingNullValues()
-                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(new GenericJackson2JsonRedisSerializer()));
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueSerializer));
     }
 
 }
@@ -0,0 +1,18 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Settings of the content-addressed document chunk store.
+ *
+ * @param localBudget heap budget for chunks resolved from Redis (chunks produced by the pod itself are always kept)
+ * @param timeToLive  TTL of chunks in Redis since the last write referencing them, has to exceed TTL of all caches
+ */
+@ConfigurationProperties("caching.chunks")
+public record ChunkStoreProperties(@DefaultValue("32MB") DataSize localBudget,
+                                   @DefaultValue("1d") Duration timeToLive) {
+}
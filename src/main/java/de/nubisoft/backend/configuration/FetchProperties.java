@@ -0,0 +1,23 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings of the patient documents fetch from the (very slow) external service.
+ *
+ * @param documentsCount   number of documents every patient has
+ * @param concurrency      maximum number of concurrent calls per patient
+ * @param latency          latency of a single document call
+ * @param timeout          maximum time blocking callers (adapters and bulk loads) wait for all documents
+ * @param batchConcurrency maximum number of patients fetched at once by bulk loads
+ */
+@ConfigurationProperties("caching.fetch")
+public record FetchProperties(@DefaultValue("15") int documentsCount,
+                              @DefaultValue("15") int concurrency,
+                              @DefaultValue("100ms") Duration latency,
+                              @DefaultValue("10s") Duration timeout,
+                              @DefaultValue("8") int batchConcurrency) {
+}
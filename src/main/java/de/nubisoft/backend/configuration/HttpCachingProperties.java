@@ -0,0 +1,19 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of HTTP caching and compression of streamed documents responses.
+ *
+ * @param gzipLevel          deflate level (1 fastest - 9 smallest) of responses compressed for clients accepting gzip
+ * @param compressedBudget   heap budget for compressed responses, kept per version (ETag) of the response, the local
+ *                           cache budget at most
+ * @param maxCompressedEntry largest compressed response kept, larger ones are compressed on every request
+ */
+@ConfigurationProperties("caching.http")
+public record HttpCachingProperties(@DefaultValue("6") int gzipLevel,
+                                    @DefaultValue("16MB") DataSize compressedBudget,
+                                    @DefaultValue("4MB") DataSize maxCompressedEntry) {
+}
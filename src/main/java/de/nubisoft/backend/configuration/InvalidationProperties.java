@@ -0,0 +1,15 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+
+/**
+ * Settings of cache invalidation.
+ *
+ * @param admins ids of users allowed to evict and refresh caches through the admin endpoint
+ */
+@ConfigurationProperties("caching.invalidation")
+public record InvalidationProperties(@DefaultValue List<String> admins) {
+}
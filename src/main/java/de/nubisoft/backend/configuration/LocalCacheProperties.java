@@ -0,0 +1,30 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of memory budgeted in-process caches (V2, V3, V8, the near caches of V5 and V6 and compressed responses).
+ *
+ * @param budget            byte budget shared by all these caches and split evenly between them, absolute (e.g.
+ *                          128MB) or percentage of max heap (e.g. 40%)
+ * @param softValues        whether values are held softly, so the GC can reclaim them as a last resort
+ * @param pressureThreshold heap usage after GC (fraction of max heap) above which caches are shrunk
+ * @param shrinkFactor      factor applied to cache maximum weight on every GC under heap pressure
+ */
+@ConfigurationProperties("caching.local")
+public record LocalCacheProperties(@DefaultValue("40%") String budget,
+                                   @DefaultValue("false") boolean softValues,
+                                   @DefaultValue("0.85") double pressureThreshold,
+                                   @DefaultValue("0.5") double shrinkFactor) {
+
+    public long budgetBytes(long maxHeapBytes) {
+        var trimmedBudget = budget.trim();
+        if (trimmedBudget.endsWith("%")) {
+            var percentage = Double.parseDouble(trimmedBudget.substring(0, trimmedBudget.length() - 1).trim());
+            return (long) (maxHeapBytes * percentage / 100);
+        }
+        return DataSize.parse(trimmedBudget).toBytes();
+    }
+}
@@ -0,0 +1,27 @@
+package de.nubisoft.backend.configuration;
+
+import io.lettuce.core.metrics.MicrometerOptions;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics configuration class
+ * <p>
+ * Cache, fetch and HTTP meters are configured in {@code application.yml} ({@code management.metrics}), here only
+ * what cannot be configured by properties.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    /**
+     * Lettuce command latency with percentiles, picked up by Spring Boot's Lettuce metrics auto-configuration
+     * (a {@code ClientResourcesBuilderCustomizer} registering {@code MicrometerCommandLatencyRecorder}).
+     */
+    @Bean
+    MicrometerOptions lettuceMicrometerOptions() {
+        return MicrometerOptions.builder()
+                .histogram(true)
+                .targetPercentiles(new double[]{0.5, 0.99, 0.999})
+                .build();
+    }
+}
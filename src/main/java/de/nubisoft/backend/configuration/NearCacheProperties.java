@@ -0,0 +1,16 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings of the pod local (L1) tier of the near cache. L1 of every cache is bounded by the local cache budget
+ * ({@link LocalCacheProperties}) by the estimated size of its entries.
+ *
+ * @param timeToLive how long an entry may be served from L1, should not exceed TTL of the remote cache
+ */
+@ConfigurationProperties("caching.near-cache")
+public record NearCacheProperties(@DefaultValue("10s") Duration timeToLive) {
+}
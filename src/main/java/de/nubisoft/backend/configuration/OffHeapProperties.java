@@ -0,0 +1,29 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of the off-heap document cache tier.
+ * <p>
+ * Only serialized document references (a few KB per patient) are moved off the heap. Shared content they reference
+ * stays on the heap in {@link de.nubisoft.backend.cache.DocumentChunkStore}: chunks registered by the pod for its whole
+ * lifetime, chunks resolved from Redis within {@code caching.chunks.local-budget}. As content is shared by all
+ * documents, that is one copy per chunk, not per cached entry.
+ *
+ * @param enabled    whether serialized documents are kept off the Java heap, behind the V3 Caffeine cache
+ * @param capacity   size of the off-heap buffer, up to 2GB, oldest entries are evicted when it is full; a direct
+ *                   buffer may take half of the maximum direct memory at most
+ * @param file       memory-mapped file keeping entries between restarts, direct (non-persistent) buffer when not set
+ * @param timeToLive maximum age of served entries
+ */
+@ConfigurationProperties("caching.off-heap")
+public record OffHeapProperties(@DefaultValue("false") boolean enabled,
+                                @DefaultValue("32MB") DataSize capacity,
+                                Path file,
+                                @DefaultValue("15m") Duration timeToLive) {
+}
@@ -0,0 +1,18 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.core.io.Resource;
+
+import java.time.Duration;
+
+/**
+ * Settings of the patient directory.
+ *
+ * @param source         CSV file with {@code doctorId,patientId} lines, e.g. {@code file:/etc/backend/patients.csv}
+ * @param reloadInterval how often the source is checked for modifications
+ */
+@ConfigurationProperties("patients.directory")
+public record PatientDirectoryProperties(@DefaultValue("classpath:patients.csv") Resource source,
+                                         @DefaultValue("1m") Duration reloadInterval) {
+}
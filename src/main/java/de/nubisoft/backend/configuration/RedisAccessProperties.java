@@ -0,0 +1,30 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Settings of Redis access of caches. Connection, timeout and pool settings are the standard
+ * {@code spring.data.redis.*} ones.
+ *
+ * @param batchSize          maximum number of keys read in one pipeline
+ * @param writeBehind        whether loaded values are written to Redis asynchronously, without waiting for the write
+ * @param failureThreshold   number of consecutive failed Redis calls opening the circuit
+ * @param openDuration       how long Redis is not called once the circuit is open
+ * @param fallbackBudget     maximum size of values kept locally while Redis is not available
+ * @param fallbackTimeToLive maximum age of values kept locally while Redis is not available
+ * @param largeValueTimeout  command timeout of reads and writes of large (multi-MB) cached values, which would exceed
+ *                           {@code spring.data.redis.timeout} in normal operation
+ */
+@ConfigurationProperties("caching.redis")
+public record RedisAccessProperties(@DefaultValue("100") int batchSize,
+                                    @DefaultValue("true") boolean writeBehind,
+                                    @DefaultValue("5") int failureThreshold,
+                                    @DefaultValue("10s") Duration openDuration,
+                                    @DefaultValue("16MB") DataSize fallbackBudget,
+                                    @DefaultValue("1m") Duration fallbackTimeToLive,
+                                    @DefaultValue("2s") Duration largeValueTimeout) {
+}
@@ -0,0 +1,17 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of refresh-ahead (stale-while-revalidate) of cached entries.
+ *
+ * @param softTtlRatio  fraction of the TTL after which an accessed entry is reloaded in the background, 1 disables it
+ * @param threads       number of threads reloading entries in the background
+ * @param queueCapacity maximum number of waiting background reloads, further ones are skipped
+ */
+@ConfigurationProperties("caching.refresh")
+public record RefreshProperties(@DefaultValue("0.8") double softTtlRatio,
+                                @DefaultValue("4") int threads,
+                                @DefaultValue("100") int queueCapacity) {
+}
@@ -36,7 +36,10 @@ public class SecurityConfiguration implements WebMvcConfigurer {
                 .sessionManagement((session) -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .securityContext((securityContext) -> securityContext.securityContextRepository(this.securityContextRepository))
                 .addFilterBefore(securityFilter, RequestCacheAwareFilter.class)
-                .authorizeHttpRequests((auth) -> auth.anyRequest().authenticated())
+                .authorizeHttpRequests((auth) -> auth
+                        // Scraped by Prometheus, which does not have a user token
+                        .requestMatchers("/actuator/health", "/actuator/health/**", "/actuator/prometheus").permitAll()
+                        .anyRequest().authenticated())
                 .exceptionHandling().authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)).and()
                 .csrf().disable()
                 .httpBasic().disable()
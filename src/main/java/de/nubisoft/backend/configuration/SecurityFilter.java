@@ -1,10 +1,13 @@
 package de.nubisoft.backend.configuration;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -13,13 +16,31 @@ import java.io.IOException;
 import java.util.List;
 
 
+/**
+ * Authenticates requests by the user token ({@code <user>.auth_token_for_user_<user>}), passed as a header or a
+ * request parameter.
+ * <p>
+ * The token is validated without allocations (index and region comparisons only) and the resulting
+ * {@link Authentication} is kept in a small bounded cache, so repeated tokens skip validation entirely.
+ * Only valid tokens are cached, so invalid ones cannot evict them.
+ */
 public class SecurityFilter extends OncePerRequestFilter {
 
-    static final String USER_TOKEN_HEADER_NAME = "User-Token";
+    public static final String USER_TOKEN_HEADER_NAME = "User-Token";
     static final String USER_TOKEN_PARAMETER_NAME = "userToken";
 
+    private static final String TOKEN_PREFIX = "auth_token_for_user_";
+    private static final char SEPARATOR = '.';
+    private static final int NOT_VALID = -1;
+
+    private static final int AUTHENTICATION_CACHE_SIZE = 10_000;
+
     private final SecurityContextRepository securityContextRepository;
 
+    private final Cache<String, Authentication> authentications = Caffeine.newBuilder()
+            .maximumSize(AUTHENTICATION_CACHE_SIZE)
+            .build();
+
     public SecurityFilter(SecurityContextRepository securityContextRepository) {
         this.securityContextRepository = securityContextRepository;
     }
@@ -33,29 +54,69 @@ public class SecurityFilter extends OncePerRequestFilter {
 
         // We always want to clear SecurityContextHolder and perform authentication only when user & token are specified
         SecurityContextHolder.clearContext();
-        if (docplannerUserTokenIsNotBlankAndIsValid(userToken)) {
+        var authentication = authenticate(userToken);
+        if (authentication != null) {
             var context = SecurityContextHolder.createEmptyContext();
-            context.setAuthentication(new UsernamePasswordAuthenticationToken(getUserFromUserToken(userToken),
-                    null, List.of()));
+            context.setAuthentication(authentication);
             SecurityContextHolder.setContext(context);
             securityContextRepository.saveContext(context, request, response);
         }
 
-        filterChain.doFilter(request, response);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            // Do not leave the context behind on pooled request threads
+            SecurityContextHolder.clearContext();
+        }
     }
 
-
-    private static String getUserFromUserToken(String userToken) {
-        return userToken.split("\\.", 2)[0];
+    /**
+     * @return authentication of the token's user, {@code null} when the token is missing or not valid
+     */
+    Authentication authenticate(String userToken) {
+        if (userToken == null) {
+            return null;
+        }
+        var authentication = authentications.getIfPresent(userToken);
+        if (authentication != null) {
+            return authentication;
+        }
+        var userLength = validUserLength(userToken);
+        if (userLength == NOT_VALID) {
+            return null;
+        }
+        // Shared between requests, it is never modified once authenticated
+        authentication = new UsernamePasswordAuthenticationToken(userToken.substring(0, userLength), null, List.of());
+        authentications.put(userToken, authentication);
+        return authentication;
     }
 
-    private static String getTokenFromUserToken(String userToken) {
-        return userToken.split("\\.", 2)[1];
+    /**
+     * Validates the token without allocating: the user is everything before the first separator and has to be
+     * non-empty, the rest has to be the token prefix followed by the user.
+     *
+     * @return length of the user part, {@value #NOT_VALID} when the token is not valid
+     */
+    static int validUserLength(String userToken) {
+        var userLength = userToken.indexOf(SEPARATOR);
+        if (userLength <= 0 || userToken.length() != userLength + 1 + TOKEN_PREFIX.length() + userLength) {
+            return NOT_VALID;
+        }
+        var tokenStart = userLength + 1;
+        if (!userToken.regionMatches(tokenStart, TOKEN_PREFIX, 0, TOKEN_PREFIX.length())
+                || !userToken.regionMatches(tokenStart + TOKEN_PREFIX.length(), userToken, 0, userLength)) {
+            return NOT_VALID;
+        }
+        // Same as the former ".+\\..+" pattern, which did not match line terminators
+        for (int i = 0; i < userLength; i++) {
+            if (isLineTerminator(userToken.charAt(i))) {
+                return NOT_VALID;
+            }
+        }
+        return userLength;
     }
 
-    private static boolean docplannerUserTokenIsNotBlankAndIsValid(String userToken) {
-        return userToken != null &&
-                userToken.matches(".+\\..+") &&
-                getTokenFromUserToken(userToken).equals("auth_token_for_user_".concat(getUserFromUserToken(userToken)));
+    private static boolean isLineTerminator(char character) {
+        return character == '\n' || character == '\r' || character == '\u0085' || character == '\u2028' || character == '\u2029';
     }
 }
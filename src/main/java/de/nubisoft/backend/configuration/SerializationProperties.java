@@ -0,0 +1,20 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+
+/**
+ * Settings of cached values serialization in Redis.
+ * <p>
+ * Compact writes are off by default: pods of a rolling deploy still running the previous version cannot read the
+ * compact format. They are enabled per cache by configuration only, once all pods run a version reading it.
+ *
+ * @param compactCaches    names of caches which write values in compact, compressed format (all caches read it)
+ * @param compressionLevel deflate level of the compact format, from 1 (fastest) to 9 (smallest)
+ */
+@ConfigurationProperties("caching.serialization")
+public record SerializationProperties(@DefaultValue List<String> compactCaches,
+                                      @DefaultValue("1") int compressionLevel) {
+}
@@ -0,0 +1,18 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings of cache load coalescing across pods.
+ *
+ * @param leaseTime    how long a pod may hold the load lease, should be longer than the slowest load, also bounds how
+ *                     long callers wait for another caller before loading on their own
+ * @param pollInterval how often pods waiting for another pod check if the value is already cached
+ */
+@ConfigurationProperties("caching.single-flight")
+public record SingleFlightProperties(@DefaultValue("10s") Duration leaseTime,
+                                     @DefaultValue("50ms") Duration pollInterval) {
+}
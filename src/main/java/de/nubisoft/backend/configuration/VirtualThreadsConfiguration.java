@@ -0,0 +1,48 @@
+package de.nubisoft.backend.configuration;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Runs Tomcat request handling and Spring MVC async processing on virtual threads (Java 21+).
+ * <p>
+ * Whole request runs on one virtual thread, so the blocking waits of the document fetch and synchronous Redis calls
+ * (V4) park the virtual thread instead of holding a platform thread for the whole cache miss.
+ * <p>
+ * Thread-local assumptions still hold: {@link SecurityContextHolder} (read by {@code LoginService} and
+ * {@code LoginUserAwareCacheKeyGenerator}) is bound to the request's virtual thread, and every request gets a fresh
+ * thread, so no context can leak between requests. Inheritable strategy must not be used, as it would copy
+ * the context into every virtual thread started by the request.
+ * <p>
+ * Caffeine and {@code ConcurrentHashMap} compute the missing value while holding a monitor (V2, V3), which pins
+ * the carrier thread for the duration of the fetch. Use {@code -Djdk.tracePinnedThreads=short} to find such places.
+ */
+@Configuration
+@ConditionalOnProperty(value = "caching.virtual-threads.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadsConfiguration {
+
+    VirtualThreadsConfiguration() {
+        if (SecurityContextHolder.MODE_INHERITABLETHREADLOCAL.equals(System.getProperty(SecurityContextHolder.SYSTEM_PROPERTY))) {
+            log.warn("Inheritable security context strategy copies the context into every virtual thread");
+        }
+        log.info("Handling requests on virtual threads");
+    }
+
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newVirtualThreadPerTaskExecutor());
+    }
+
+    @Bean(name = {TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, "taskExecutor"})
+    AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(VirtualThreads.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -0,0 +1,39 @@
+package de.nubisoft.backend.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Settings of warming up local caches on startup and of their snapshot kept between restarts.
+ *
+ * @param enabled      whether local caches are warmed up before the pod reports readiness
+ * @param keys         which patients are warmed up
+ * @param maxKeys      maximum number of patients warmed up, so a large directory does not hold back readiness
+ * @param concurrency  maximum number of patients warmed up at once
+ * @param timeout      maximum duration of the warm-up, startup continues with partially warm caches afterwards
+ * @param snapshotFile file the local caches are written to on shutdown and restored from on startup, none when not set
+ * @param hotKeys      number of the most frequently accessed keys kept in the snapshot
+ */
+@ConfigurationProperties("caching.warm-up")
+public record WarmUpProperties(@DefaultValue("true") boolean enabled,
+                               @DefaultValue("HOT_KEYS") Keys keys,
+                               @DefaultValue("50") int maxKeys,
+                               @DefaultValue("4") int concurrency,
+                               @DefaultValue("2m") Duration timeout,
+                               Path snapshotFile,
+                               @DefaultValue("20") int hotKeys) {
+
+    public enum Keys {
+        /**
+         * Patients of the patient directory, in order of their ids.
+         */
+        KNOWN_PATIENTS,
+        /**
+         * The most frequently accessed patients recorded in the snapshot, known patients when there is no snapshot.
+         */
+        HOT_KEYS
+    }
+}
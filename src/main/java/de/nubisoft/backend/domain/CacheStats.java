@@ -0,0 +1,5 @@
+package de.nubisoft.backend.domain;
+
+public record CacheStats(String name, Long hits, Long misses, Long evictions, Long entries, Long bytes, Long loads,
+                         Double loadMeanMillis) {
+}
@@ -0,0 +1,5 @@
+package de.nubisoft.backend.domain;
+
+public record LatencyStats(String name, String tags, Long count, Double meanMillis, Double p50Millis, Double p99Millis,
+                           Double p999Millis, Double maxMillis) {
+}
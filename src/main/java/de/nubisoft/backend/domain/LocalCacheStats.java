@@ -0,0 +1,5 @@
+package de.nubisoft.backend.domain;
+
+public record LocalCacheStats(String name, Long entries, Long weightedBytes, Long maximumBytes, Long budgetBytes,
+                              Long evictions, Boolean softValues, Boolean underPressure) {
+}
@@ -0,0 +1,8 @@
+package de.nubisoft.backend.domain;
+
+import de.nubisoft.backend.cache.DocumentRef;
+
+import java.util.List;
+
+public record PatientDocumentRefs(Patient patient, List<DocumentRef> documents) {
+}
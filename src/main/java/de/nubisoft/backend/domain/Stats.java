@@ -1,4 +1,7 @@
 package de.nubisoft.backend.domain;
 
-public record Stats(Long heapSize, Long maxHeapSize, Long freeHeapSize) {
+import java.util.List;
+
+public record Stats(Long heapSize, Long maxHeapSize, Long freeHeapSize, List<LocalCacheStats> localCaches,
+                    List<CacheStats> caches, List<LatencyStats> latencies) {
 }
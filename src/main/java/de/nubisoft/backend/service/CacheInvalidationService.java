@@ -0,0 +1,231 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.cache.NearCacheManager;
+import de.nubisoft.backend.cache.RedisCircuitBreaker;
+import de.nubisoft.backend.cache.RedisKeyIndex;
+import de.nubisoft.backend.cache.TenantCacheKey;
+import de.nubisoft.backend.configuration.CachingConfiguration;
+import de.nubisoft.backend.domain.Patient;
+import de.nubisoft.backend.exception.NotFoundException;
+import de.nubisoft.backend.exception.ServiceUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Evicts or refreshes cached patient documents in all tiers of all caches, on all pods: documents of a single
+ * patient, of all patients of a doctor or whole caches.
+ * <p>
+ * Redis tiers are invalidated once, by the pod handling the call: programmatic caches through {@link PatientsService},
+ * annotation based ones through their {@link NearCacheManager} cache, which drops near cache entries on all pods as
+ * well. Whole caches are evicted through {@link RedisKeyIndex}, without scanning the keyspace. Pod local tiers of
+ * programmatic caches are invalidated by the pod itself and, through Redis pub/sub on {@link #INVALIDATION_CHANNEL},
+ * by all other pods.
+ * <p>
+ * Refresh reloads V2, V3 and V4 entries in the background, cached documents are served meanwhile. Entries of
+ * annotation based caches and of V8 can only be loaded by their callers, so they are evicted instead.
+ * <p>
+ * Pub/sub delivers messages at most once: a pod disconnected from Redis misses invalidations (as do all pods while the
+ * Redis circuit is open), its local entries are then bounded by their TTL only.
+ * <p>
+ * When Redis is not available, the invalidation still applies to the pod's own local tiers. Then a
+ * {@link ServiceUnavailableException} names the Redis tiers that were skipped, and the caller should retry.
+ */
+@Service
+@Slf4j
+public class CacheInvalidationService implements MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "cache-invalidation";
+
+    private static final String SEPARATOR = "\n";
+
+    private static final List<String> ANNOTATION_CACHE_NAMES = List.of(
+            CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5, CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6);
+
+    private enum Action {EVICT, REFRESH}
+
+    private enum Scope {PATIENT, DOCTOR, CACHE}
+
+    private final PatientsService patientsService;
+
+    private final PatientDirectory patientDirectory;
+
+    private final NearCacheManager cacheManager;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisCircuitBreaker circuitBreaker;
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    @Autowired
+    public CacheInvalidationService(PatientsService patientsService, PatientDirectory patientDirectory, NearCacheManager cacheManager,
+                                    StringRedisTemplate redisTemplate, RedisCircuitBreaker circuitBreaker) {
+        this.patientsService = patientsService;
+        this.patientDirectory = patientDirectory;
+        this.cacheManager = cacheManager;
+        this.redisTemplate = redisTemplate;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @return names of all caches of patient documents
+     */
+    public List<String> cacheNames() {
+        return Stream.concat(PatientsService.PROGRAMMATIC_CACHE_NAMES.stream(), ANNOTATION_CACHE_NAMES.stream()).toList();
+    }
+
+    public void evictPatient(String patientId) {
+        invalidate(Action.EVICT, Scope.PATIENT, patientId);
+    }
+
+    public void refreshPatient(String patientId) {
+        invalidate(Action.REFRESH, Scope.PATIENT, patientId);
+    }
+
+    public void evictDoctorPatients(String doctorId) {
+        invalidate(Action.EVICT, Scope.DOCTOR, doctorId);
+    }
+
+    public void refreshDoctorPatients(String doctorId) {
+        invalidate(Action.REFRESH, Scope.DOCTOR, doctorId);
+    }
+
+    /**
+     * Evicts all entries of the cache.
+     *
+     * @param cacheName one of {@link #cacheNames()}
+     */
+    public void evictCache(String cacheName) {
+        if (!cacheNames().contains(cacheName)) {
+            throw new NotFoundException();
+        }
+        invalidate(Action.EVICT, Scope.CACHE, cacheName);
+    }
+
+    /**
+     * @throws ServiceUnavailableException when Redis tiers were skipped, local tiers of the pod are invalidated anyway
+     */
+    private void invalidate(Action action, Scope scope, String id) {
+        log.info("Invalidating caches: {} {} {}", action, scope, id);
+        var skippedTiers = new LinkedHashSet<String>();
+        invalidateShared(action, scope, id, skippedTiers);
+        invalidateLocal(action, scope, id);
+        if (!publish(String.join(SEPARATOR, instanceId, action.name(), scope.name(), id))) {
+            skippedTiers.add("local caches of other pods");
+        }
+        if (!skippedTiers.isEmpty()) {
+            log.warn("Redis is not available, {} {} {} skipped: {}", action, scope, id, skippedTiers);
+            throw new ServiceUnavailableException("Redis is not available, skipped: " + String.join(", ", skippedTiers));
+        }
+    }
+
+    private void invalidateShared(Action action, Scope scope, String id, Set<String> skippedTiers) {
+        if (scope == Scope.CACHE) {
+            var cleared = ANNOTATION_CACHE_NAMES.contains(id)
+                    ? cacheManager.clear(id)
+                    : patientsService.clearSharedPatientDocuments(id);
+            if (!cleared) {
+                skippedTiers.add(id);
+            }
+            return;
+        }
+        for (var patientId : patientIds(scope, id)) {
+            var invalidated = action == Action.REFRESH
+                    ? patientsService.refreshSharedPatientDocuments(patientId)
+                    : patientsService.evictSharedPatientDocuments(patientId);
+            if (!invalidated) {
+                skippedTiers.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4);
+                skippedTiers.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8);
+            }
+            if (!cacheManager.evict(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5, patientId)) {
+                skippedTiers.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5);
+            }
+        }
+        for (var patient : patients(scope, id)) {
+            if (!cacheManager.evict(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6,
+                    new TenantCacheKey(patient.doctorId(), patient.patientId()))) {
+                skippedTiers.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6);
+            }
+        }
+    }
+
+    private void invalidateLocal(Action action, Scope scope, String id) {
+        if (scope == Scope.CACHE) {
+            // Near caches of annotation based caches are cleared on all pods by the cache itself
+            if (!ANNOTATION_CACHE_NAMES.contains(id)) {
+                patientsService.clearLocalPatientDocuments(id);
+            }
+            return;
+        }
+        for (var patientId : patientIds(scope, id)) {
+            if (action == Action.REFRESH) {
+                patientsService.refreshLocalPatientDocuments(patientId);
+            } else {
+                patientsService.evictLocalPatientDocuments(patientId);
+            }
+        }
+    }
+
+    /**
+     * Patients in scope, with their doctors, which are a part of V6 cache keys.
+     */
+    private List<Patient> patients(Scope scope, String id) {
+        return scope == Scope.DOCTOR
+                ? patientDirectory.findByDoctor(id)
+                : patientDirectory.findByPatient(id);
+    }
+
+    /**
+     * Ids of patients in scope. A patient is in scope even when it is no longer in the directory, as its documents
+     * might still be cached.
+     */
+    private List<String> patientIds(Scope scope, String id) {
+        return scope == Scope.DOCTOR
+                ? patientDirectory.findByDoctor(id).stream().map(Patient::patientId).toList()
+                : List.of(id);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        var body = new String(message.getBody(), StandardCharsets.UTF_8);
+        var parts = body.split(SEPARATOR, 4);
+        if (parts.length != 4) {
+            log.warn("Ignoring malformed cache invalidation message: {}", body);
+            return;
+        }
+        if (parts[0].equals(instanceId)) {
+            return;
+        }
+        try {
+            invalidateLocal(Action.valueOf(parts[1]), Scope.valueOf(parts[2]), parts[3]);
+        } catch (RuntimeException failure) {
+            log.warn("Unable to apply cache invalidation message: {}", body, failure);
+        }
+    }
+
+    /**
+     * @return whether the invalidation was published
+     */
+    private boolean publish(String message) {
+        try {
+            return circuitBreaker.call(() -> {
+                redisTemplate.convertAndSend(INVALIDATION_CHANNEL, message);
+                return true;
+            }, () -> false);
+        } catch (RuntimeException unexpected) {
+            log.warn("Unable to publish cache invalidation", unexpected);
+            return false;
+        }
+    }
+}
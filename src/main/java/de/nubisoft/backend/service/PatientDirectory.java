@@ -0,0 +1,293 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.configuration.PatientDirectoryProperties;
+import de.nubisoft.backend.domain.Patient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory of patients and their doctors, answering whether a doctor may access a patient.
+ * <p>
+ * Patients are read from a CSV source ({@code doctorId,patientId} per line) into an immutable index: a set of
+ * (doctorId, patientId) pairs, so ownership is checked in O(1) regardless of the directory size, and patient lists
+ * of every doctor and of every patient id (one entry per doctor of the patient). The index is replaced atomically,
+ * so reads are lock-free and never see a partially loaded directory.
+ * <p>
+ * The source is checked periodically and reloaded only when it has been modified. When a file source has only grown
+ * and the end of the previously read content is unchanged (as when lines are appended), only the appended lines are
+ * read and added to a copy of the index; any other modification (removed or edited lines, an unterminated last line)
+ * reloads the whole source. A source which cannot be read keeps the previous index, except on startup when the
+ * directory has to be loaded.
+ */
+@Component
+@Slf4j
+public class PatientDirectory implements DisposableBean {
+
+    private static final String HEADER = "doctorId,patientId";
+
+    private static final char SEPARATOR = ',';
+
+    /**
+     * Number of bytes at the end of the read content compared to tell an append from other modifications.
+     */
+    private static final int TAIL_BYTES = 4096;
+
+    private static final Index EMPTY = new Index(Set.of(), Map.of(), Map.of(), 0, 0, new byte[0], 0);
+
+    private final Resource source;
+
+    private final ScheduledExecutorService reloader;
+
+    private volatile Index index;
+
+    /**
+     * @param patients         all patients, keyed by doctor and patient id
+     * @param patientsByDoctor patients of every doctor, in order of the source
+     * @param patientsById     patients of every patient id, i.e. the patient with each of its doctors
+     * @param sourceModifiedAt last modification of the source, when it was read
+     * @param sourceLength     number of bytes read from the source
+     * @param sourceTail       last (up to {@value #TAIL_BYTES}) bytes read from the source
+     * @param sourceLines      number of lines read from the source
+     */
+    private record Index(Set<Patient> patients, Map<String, List<Patient>> patientsByDoctor,
+                         Map<String, List<Patient>> patientsById, long sourceModifiedAt, long sourceLength,
+                         byte[] sourceTail, int sourceLines) {
+    }
+
+    @Autowired
+    PatientDirectory(PatientDirectoryProperties properties) {
+        this.source = properties.source();
+        try {
+            this.index = read(lastModified());
+        } catch (IOException unreadable) {
+            throw new UncheckedIOException("Unable to read patient directory " + source, unreadable);
+        }
+        log.info("Loaded {} patients of {} doctors from {}", index.patients().size(), index.patientsByDoctor().size(), source);
+        var threadFactory = new CustomizableThreadFactory("patient-directory-reload-");
+        threadFactory.setDaemon(true);
+        this.reloader = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        var interval = properties.reloadInterval().toMillis();
+        this.reloader.scheduleWithFixedDelay(this::reloadIfModified, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Optional<Patient> find(String doctorId, String patientId) {
+        var patient = new Patient(doctorId, patientId);
+        return index.patients().contains(patient) ? Optional.of(patient) : Optional.empty();
+    }
+
+    public List<Patient> findByDoctor(String doctorId) {
+        return index.patientsByDoctor().getOrDefault(doctorId, List.of());
+    }
+
+    /**
+     * @return the patient with each of its doctors
+     */
+    public List<Patient> findByPatient(String patientId) {
+        return index.patientsById().getOrDefault(patientId, List.of());
+    }
+
+    public Collection<Patient> findAll() {
+        return index.patients();
+    }
+
+    void reloadIfModified() {
+        try {
+            var modifiedAt = lastModified();
+            var current = index;
+            if (modifiedAt == current.sourceModifiedAt()) {
+                return;
+            }
+            var appended = readAppended(current, modifiedAt);
+            if (appended != null) {
+                index = appended;
+                log.info("Read appended lines of patient directory from {}: {} patients, {} added", source,
+                        appended.patients().size(), appended.patients().size() - current.patients().size());
+                return;
+            }
+            var reloaded = read(modifiedAt);
+            var removed = current.patients().stream().filter(patient -> !reloaded.patients().contains(patient)).count();
+            index = reloaded;
+            log.info("Reloaded patient directory from {}: {} patients, {} added, {} removed", source,
+                    reloaded.patients().size(), reloaded.patients().size() - current.patients().size() + removed, removed);
+        } catch (IOException | RuntimeException unreadable) {
+            log.warn("Unable to reload patient directory from {}, keeping the previous one", source, unreadable);
+        }
+    }
+
+    private Index read(long modifiedAt) throws IOException {
+        return append(EMPTY, source.getInputStream(), modifiedAt);
+    }
+
+    /**
+     * Reads only the lines appended to the source since the current index was read.
+     *
+     * @return index with the appended patients, {@code null} when the source has to be read whole
+     */
+    private Index readAppended(Index current, long modifiedAt) throws IOException {
+        var tail = current.sourceTail();
+        if (!source.isFile() || tail.length == 0 || tail[tail.length - 1] != '\n') {
+            return null;
+        }
+        try (var channel = FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ)) {
+            if (channel.size() <= current.sourceLength()) {
+                return null;
+            }
+            var readTail = ByteBuffer.allocate(tail.length);
+            var tailPosition = current.sourceLength() - tail.length;
+            while (readTail.hasRemaining() && channel.read(readTail, tailPosition + readTail.position()) >= 0) {
+                // reads until the whole previous tail is read back
+            }
+            if (readTail.hasRemaining() || !Arrays.equals(readTail.array(), tail)) {
+                return null;
+            }
+            return append(current, Channels.newInputStream(channel.position(current.sourceLength())), modifiedAt);
+        }
+    }
+
+    /**
+     * Reads lines of the input, which continues the content the base index was read from, into a new index.
+     */
+    private Index append(Index base, InputStream input, long modifiedAt) throws IOException {
+        var patients = new HashSet<>(base.patients());
+        var added = new LinkedHashMap<String, List<Patient>>();
+        var addedById = new HashMap<String, List<Patient>>();
+        var tracked = new TailTrackingInputStream(input, base.sourceLength(), base.sourceTail());
+        var lineNumber = base.sourceLines();
+        try (var reader = new BufferedReader(new InputStreamReader(tracked, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.charAt(0) == '#' || line.equals(HEADER)) {
+                    continue;
+                }
+                var separator = line.indexOf(SEPARATOR);
+                if (separator <= 0 || separator == line.length() - 1) {
+                    throw new IOException("Malformed patient directory line " + lineNumber + ": " + line);
+                }
+                var patient = new Patient(line.substring(0, separator).strip(), line.substring(separator + 1).strip());
+                if (patients.add(patient)) {
+                    added.computeIfAbsent(patient.doctorId(), doctorId -> new ArrayList<>()).add(patient);
+                    addedById.computeIfAbsent(patient.patientId(), patientId -> new ArrayList<>()).add(patient);
+                }
+            }
+        }
+        return new Index(Collections.unmodifiableSet(patients), merge(base.patientsByDoctor(), added),
+                merge(base.patientsById(), addedById), modifiedAt, tracked.count(), tracked.tail(), lineNumber);
+    }
+
+    /**
+     * Copy of the base lists, with added patients appended to the lists of their keys.
+     */
+    private static Map<String, List<Patient>> merge(Map<String, List<Patient>> base, Map<String, List<Patient>> added) {
+        var merged = new HashMap<>(base);
+        added.forEach((key, addedPatients) -> {
+            var patients = new ArrayList<>(merged.getOrDefault(key, List.of()));
+            patients.addAll(addedPatients);
+            merged.put(key, List.copyOf(patients));
+        });
+        return Collections.unmodifiableMap(merged);
+    }
+
+    private long lastModified() {
+        try {
+            return source.lastModified();
+        } catch (IOException unknown) {
+            // e.g. a resource within a jar, which does not change anyway
+            return 0;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        reloader.shutdownNow();
+    }
+
+    /**
+     * Counts the bytes read and keeps the last {@value #TAIL_BYTES} of them, continuing the content read before.
+     */
+    private static final class TailTrackingInputStream extends FilterInputStream {
+
+        private final byte[] ring = new byte[TAIL_BYTES];
+
+        private long count;
+
+        TailTrackingInputStream(InputStream input, long offset, byte[] tail) {
+            super(input);
+            this.count = offset - tail.length;
+            track(tail, 0, tail.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var read = super.read();
+            if (read >= 0) {
+                ring[(int) (count++ % TAIL_BYTES)] = (byte) read;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            var read = super.read(buffer, offset, length);
+            if (read > 0) {
+                track(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        long count() {
+            return count;
+        }
+
+        byte[] tail() {
+            var length = (int) Math.min(count, TAIL_BYTES);
+            var tail = new byte[length];
+            for (int i = 0; i < length; i++) {
+                tail[i] = ring[(int) ((count - length + i) % TAIL_BYTES)];
+            }
+            return tail;
+        }
+
+        private void track(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                ring[(int) (count++ % TAIL_BYTES)] = bytes[i];
+            }
+        }
+    }
+}
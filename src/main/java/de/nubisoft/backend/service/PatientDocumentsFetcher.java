@@ -0,0 +1,148 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.cache.DocumentChunkStore;
+import de.nubisoft.backend.cache.DocumentRef;
+import de.nubisoft.backend.cache.MemoryAwareCaches;
+import de.nubisoft.backend.configuration.FetchProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Fetches patient documents from the very slow external service.
+ * <p>
+ * Every document is a separate call. Calls are issued concurrently (up to the configured limit) and are non-blocking,
+ * so a cold fetch takes roughly one call's latency instead of the sum of all of them and no thread is held while
+ * waiting. Documents are returned in call order.
+ * <p>
+ * Document content is the same for all documents, so it is registered once in {@link DocumentChunkStore} and
+ * documents can be fetched as {@link DocumentRef}s, without materializing the content for every document.
+ * <p>
+ * Time of every fetch is recorded as {@value #FETCH_TIMER_NAME}, tagged by the outcome.
+ */
+@Service
+@Slf4j
+public class PatientDocumentsFetcher {
+
+    static final String FETCH_TIMER_NAME = "patient.documents.fetch";
+
+    private final FetchProperties properties;
+
+    private final DocumentChunkStore chunkStore;
+
+    private final String documentContentHash;
+
+    private final int documentContentBytes;
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    PatientDocumentsFetcher(FetchProperties properties, DocumentChunkStore chunkStore, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.chunkStore = chunkStore;
+        this.meterRegistry = meterRegistry;
+        var documentContent = readDocumentContent();
+        this.documentContentHash = chunkStore.register(documentContent);
+        this.documentContentBytes = MemoryAwareCaches.stringBytes(documentContent);
+    }
+
+    public Mono<List<DocumentRef>> fetchDocumentRefs(String patientId) {
+        return Mono.defer(() -> {
+            var sample = Timer.start(meterRegistry);
+            return Flux.range(0, properties.documentsCount())
+                    .flatMapSequential(id -> fetchDocument(patientId), properties.concurrency())
+                    .collectList()
+                    .doFinally(signal -> sample.stop(Timer.builder(FETCH_TIMER_NAME)
+                            .tag("outcome", switch (signal) {
+                                case ON_COMPLETE -> "success";
+                                case ON_ERROR -> "error";
+                                default -> "cancelled";
+                            })
+                            .description("Time of fetching all documents of a patient from the external service")
+                            .register(meterRegistry)));
+        }).doOnSubscribe(subscription -> log.info("Fetching patient documents from external service. Patient id: {}", patientId));
+    }
+
+    /**
+     * Fetches documents of many patients, up to the configured number of patients at once.
+     */
+    public Mono<Map<String, List<DocumentRef>>> fetchDocumentRefs(Collection<String> patientIds) {
+        return Flux.fromIterable(patientIds)
+                .flatMap(patientId -> fetchDocumentRefs(patientId).map(documents -> Map.entry(patientId, documents)),
+                        properties.batchConcurrency())
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue);
+    }
+
+    public Mono<List<String>> fetchDocuments(String patientId) {
+        return fetchDocumentRefs(patientId).map(chunkStore::assemble);
+    }
+
+    /**
+     * Blocking adapter of {@link #fetchDocumentRefs(String)} for callers which are not reactive.
+     */
+    public List<DocumentRef> fetchDocumentRefsBlocking(String patientId) {
+        return fetchDocumentRefs(patientId).block(properties.timeout());
+    }
+
+    /**
+     * Blocking adapter of {@link #fetchDocumentRefs(Collection)} for callers which are not reactive.
+     */
+    public Map<String, List<DocumentRef>> fetchDocumentRefsBlocking(Collection<String> patientIds) {
+        return fetchDocumentRefs(patientIds).block(properties.timeout());
+    }
+
+    /**
+     * Estimated heap size of all documents of a patient, as held by caches of whole documents.
+     */
+    public long estimatedDocumentsBytes() {
+        return 64 + (long) properties.documentsCount() * documentContentBytes;
+    }
+
+    /**
+     * Maximum number of patients loaded at once by bulk loads.
+     */
+    public int batchConcurrency() {
+        return properties.batchConcurrency();
+    }
+
+    /**
+     * Maximum time blocking callers wait for fetched documents.
+     */
+    public Duration timeout() {
+        return properties.timeout();
+    }
+
+    /**
+     * Blocking adapter of {@link #fetchDocuments(String)} for callers which are not reactive.
+     */
+    public List<String> fetchDocumentsBlocking(String patientId) {
+        return fetchDocuments(patientId).block(properties.timeout());
+    }
+
+    private Mono<DocumentRef> fetchDocument(String patientId) {
+        return Mono.delay(properties.latency())
+                .map(tick -> new DocumentRef(patientId, documentContentHash, UUID.randomUUID().toString()));
+    }
+
+    private static String readDocumentContent() {
+        try (var documentStream = new ClassPathResource("document.txt").getInputStream()) {
+            return new String(documentStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException unexpected) {
+            throw new UncheckedIOException(unexpected);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.nubisoft.backend.service;
+
+import de.nubisoft.backend.cache.CacheSnapshot;
+import de.nubisoft.backend.configuration.WarmUpProperties;
+import de.nubisoft.backend.domain.Patient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Warms up local patient document caches (V2, V3) on startup, so the first requests served by a new pod do not hit
+ * the very slow external service.
+ * <p>
+ * Runs as an {@link ApplicationRunner}, so the pod reports readiness ({@code /actuator/health/readiness}) only after
+ * the warm-up is done or has timed out. First the local caches are restored from the snapshot written on the previous
+ * shutdown (when configured), then the configured patients (at most the configured number of them) are loaded with
+ * bounded concurrency. A failed or timed out warm-up does not fail the startup.
+ */
+@Component
+@Slf4j
+class PatientDocumentsWarmUp implements ApplicationRunner, DisposableBean {
+
+    private final PatientsService patientsService;
+
+    private final PatientDirectory patientDirectory;
+
+    private final WarmUpProperties properties;
+
+    @Autowired
+    PatientDocumentsWarmUp(PatientsService patientsService, PatientDirectory patientDirectory, WarmUpProperties properties) {
+        this.patientsService = patientsService;
+        this.patientDirectory = patientDirectory;
+        this.properties = properties;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.enabled()) {
+            return;
+        }
+        var snapshot = restoreSnapshot();
+        var patientIds = properties.keys() == WarmUpProperties.Keys.HOT_KEYS && snapshot != null
+                ? snapshot.hotKeys().stream()
+                : patientDirectory.findAll().stream().map(Patient::patientId).distinct().sorted();
+        warmUp(patientIds.limit(properties.maxKeys()).toList());
+    }
+
+    private void warmUp(List<String> patientIds) {
+        var startedAt = System.nanoTime();
+        try {
+            var warmedUp = Flux.fromIterable(patientIds)
+                    .flatMap(patientId -> Mono.fromRunnable(() -> patientsService.warmUpPatientDocuments(patientId))
+                                    .subscribeOn(Schedulers.boundedElastic())
+                                    .thenReturn(patientId)
+                                    .onErrorResume(failure -> {
+                                        log.warn("Unable to warm up documents of patient {}", patientId, failure);
+                                        return Mono.empty();
+                                    }),
+                            properties.concurrency())
+                    .count()
+                    .block(properties.timeout());
+            log.info("Warmed up documents of {}/{} patients in {} ms", warmedUp, patientIds.size(),
+                    (System.nanoTime() - startedAt) / 1_000_000);
+        } catch (IllegalStateException timedOut) {
+            log.warn("Warm-up of patient documents has not finished within {}, continuing with partially warm caches",
+                    properties.timeout());
+        }
+    }
+
+    private CacheSnapshot restoreSnapshot() {
+        var snapshotFile = properties.snapshotFile();
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return null;
+        }
+        try {
+            var snapshot = CacheSnapshot.read(snapshotFile);
+            var restored = patientsService.restoreLocalCaches(snapshot);
+            log.info("Restored {}/{} local cache entries from {}", restored, snapshot.entries().size(), snapshotFile);
+            return snapshot;
+        } catch (IOException | RuntimeException unusable) {
+            log.warn("Unable to restore local caches from {}", snapshotFile, unusable);
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        var snapshotFile = properties.snapshotFile();
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            var snapshot = patientsService.snapshotLocalCaches(properties.hotKeys());
+            snapshot.write(snapshotFile);
+            log.info("Written {} local cache entries to {}", snapshot.entries().size(), snapshotFile);
+        } catch (IOException | RuntimeException unexpected) {
+            log.warn("Unable to write local caches to {}", snapshotFile, unexpected);
+        }
+    }
+}
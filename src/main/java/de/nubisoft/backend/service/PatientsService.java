@@ -1,79 +1,210 @@
 package de.nubisoft.backend.service;
 
 
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import de.nubisoft.backend.cache.CacheMetrics;
+import de.nubisoft.backend.cache.CacheRefresher;
+import de.nubisoft.backend.cache.CacheSnapshot;
+import de.nubisoft.backend.cache.CompactRedisSerializer;
+import de.nubisoft.backend.cache.CompactRedisSerializers;
+import de.nubisoft.backend.cache.DocumentChunkStore;
+import de.nubisoft.backend.cache.DocumentRef;
+import de.nubisoft.backend.cache.LargeValueRedisConnections;
+import de.nubisoft.backend.cache.MemoryAwareCaches;
+import de.nubisoft.backend.cache.NearCacheManager;
+import de.nubisoft.backend.cache.OffHeapStore;
+import de.nubisoft.backend.cache.RedisCacheOperations;
+import de.nubisoft.backend.cache.RedisCircuitBreaker;
+import de.nubisoft.backend.cache.RedisKeyIndex;
+import de.nubisoft.backend.cache.SingleFlight;
 import de.nubisoft.backend.configuration.CachingConfiguration;
 import de.nubisoft.backend.domain.Patient;
+import de.nubisoft.backend.domain.PatientDocumentRefs;
 import de.nubisoft.backend.domain.PatientDocumentsResponse;
+import de.nubisoft.backend.exception.BadRequestException;
 import de.nubisoft.backend.exception.NotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
 
 @Service
 @Slf4j
 public class PatientsService {
 
+    private static final Duration PATIENT_DOCUMENTS_TIME_TO_LIVE = Duration.ofMinutes(15);
+
+    static final String LOCAL_CACHE_NAME_V2 = "patient-documents-v2";
+    static final String LOCAL_CACHE_NAME_V3 = "patient-documents-v3";
+    static final String LOCAL_CACHE_NAME_V8 = "patient-documents-v8-local";
+
+    static final int MAX_PATIENTS_PER_BATCH = 100;
+
+    /**
+     * Caches managed by the service itself, the annotation based ones are managed by the cache manager.
+     */
+    static final List<String> PROGRAMMATIC_CACHE_NAMES = List.of(LOCAL_CACHE_NAME_V2, LOCAL_CACHE_NAME_V3,
+            CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4, CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8);
+
     private final LoginService loginService;
 
-    private static final Set<Patient> patients = Set.of(
-
-            // First doctor
-            new Patient("1", "1"),
-            new Patient("1", "2"),
-            new Patient("1", "3"),
-            new Patient("1", "4"),
-            new Patient("1", "5"),
-            new Patient("1", "6"),
-            new Patient("1", "7"),
-            new Patient("1", "8"),
-            new Patient("1", "9"),
-            new Patient("1", "10"),
-
-            // Second doctor
-            new Patient("2", "11"),
-            new Patient("2", "12"),
-            new Patient("2", "13"),
-            new Patient("2", "14"),
-            new Patient("2", "15"),
-            new Patient("2", "16"),
-            new Patient("2", "17"),
-            new Patient("2", "18"),
-            new Patient("2", "19"),
-            new Patient("2", "20")
-    );
-
-    private final Map<String, List<String>> patientsDocumentCacheV2 = new ConcurrentHashMap<>();
-
-    private final Cache<String, List<String>> patientsDocumentCacheV3 = Caffeine.newBuilder()
-            .expireAfterWrite(15, TimeUnit.MINUTES)
-            .maximumSize(5)
-            .build();
-    private final RedisTemplate<String, List<String>> patientsDocumentCacheV4;
+    private final ReactiveLoginService reactiveLoginService;
+
+    private final PatientDirectory patientDirectory;
+
+    // Entries hold only document references (a few KB each), shared content is kept once in DocumentChunkStore
+    private final ConcurrentMap<String, List<DocumentRef>> patientsDocumentCacheV2;
+
+    private final LoadingCache<String, List<DocumentRef>> patientsDocumentCacheV3;
+
+    // Optional second local tier of V3, keeping serialized entries outside of the Java heap
+    private final Optional<OffHeapStore> patientsDocumentOffHeapStoreV3;
+
+    private final CompactRedisSerializer compactSerializer;
+    private final RedisCacheOperations patientsDocumentCacheV4;
+
+    private final CompactRedisSerializer patientsDocumentSerializerV4;
+
+    private final CacheMetrics patientsDocumentMetricsV4;
+
+    // Holds whole documents, weighed within the local cache budget
+    private final AsyncCache<String, List<String>> patientsDocumentCacheV8;
+
+    private final ReactiveRedisTemplate<String, List<String>> patientsDocumentRedisCacheV8;
+
+    private final SingleFlight singleFlight;
+
+    private final PatientDocumentsFetcher patientDocumentsFetcher;
+
+    private final DocumentChunkStore documentChunkStore;
+
+    private final CacheRefresher cacheRefresher;
+
+    private final RedisKeyIndex redisKeyIndex;
+
+    private final RedisCircuitBreaker redisCircuitBreaker;
 
     @Autowired
-    public PatientsService(LoginService loginService, RedisConnectionFactory connectionFactory) {
+    public PatientsService(LoginService loginService, ReactiveLoginService reactiveLoginService,
+                           RedisCacheOperations redisCacheOperations, LargeValueRedisConnections largeValueRedisConnections,
+                           SingleFlight singleFlight, PatientDocumentsFetcher patientDocumentsFetcher,
+                           CompactRedisSerializers compactRedisSerializers, DocumentChunkStore documentChunkStore,
+                           MemoryAwareCaches memoryAwareCaches, Optional<OffHeapStore> offHeapStore,
+                           MeterRegistry meterRegistry, CacheRefresher cacheRefresher, PatientDirectory patientDirectory,
+                           RedisKeyIndex redisKeyIndex, NearCacheManager nearCacheManager,
+                           RedisCircuitBreaker redisCircuitBreaker) {
         this.loginService = loginService;
+        this.patientDirectory = patientDirectory;
+        this.reactiveLoginService = reactiveLoginService;
+        this.singleFlight = singleFlight;
+        this.patientDocumentsFetcher = patientDocumentsFetcher;
+        this.documentChunkStore = documentChunkStore;
+        this.cacheRefresher = cacheRefresher;
+        this.redisKeyIndex = redisKeyIndex;
+        this.redisCircuitBreaker = redisCircuitBreaker;
+
+        Cache<String, List<DocumentRef>> patientsDocumentCacheV2Storage = memoryAwareCaches.build(LOCAL_CACHE_NAME_V2,
+                PatientsService::weigh, caffeine -> caffeine.build());
+        this.patientsDocumentCacheV2 = patientsDocumentCacheV2Storage.asMap();
+        // Entries accessed after the soft TTL are reloaded in the background, while the stale value is returned.
+        // Expiration is per entry, so entries restored from a snapshot keep their remaining TTL.
+        this.patientsDocumentCacheV3 = memoryAwareCaches.build(LOCAL_CACHE_NAME_V3, PatientsService::weigh,
+                caffeine -> caffeine.expireAfter(expireAfterWrite(PATIENT_DOCUMENTS_TIME_TO_LIVE))
+                        .refreshAfterWrite(cacheRefresher.softTimeToLive(PATIENT_DOCUMENTS_TIME_TO_LIVE))
+                        .executor(cacheRefresher.executor())
+                        .build(new CacheLoader<String, List<DocumentRef>>() {
+                            @Override
+                            public List<DocumentRef> load(String patientId) {
+                                return loadPatientDocumentRefsV3(patientId);
+                            }
+
+                            @Override
+                            public Map<String, List<DocumentRef>> loadAll(Set<? extends String> patientIds) {
+                                return loadPatientDocumentRefsV3(patientIds);
+                            }
+
+                            @Override
+                            public List<DocumentRef> reload(String patientId, List<DocumentRef> oldDocuments) {
+                                return fetchPatientDocumentRefsV3(patientId);
+                            }
+                        }));
+        this.patientsDocumentOffHeapStoreV3 = offHeapStore;
+        this.compactSerializer = compactRedisSerializers.compact();
 
-        this.patientsDocumentCacheV4 = new RedisTemplate<>();
-        this.patientsDocumentCacheV4.setConnectionFactory(connectionFactory);
-        this.patientsDocumentCacheV4.setKeySerializer(new StringRedisSerializer());
-        this.patientsDocumentCacheV4.afterPropertiesSet();
+        this.patientsDocumentCacheV4 = redisCacheOperations;
+        this.patientsDocumentSerializerV4 = compactRedisSerializers.forCache(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4, RedisSerializer.java());
+        this.patientsDocumentMetricsV4 = new CacheMetrics(meterRegistry, CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4);
+        this.patientsDocumentMetricsV4.registerRedisSize(redisKeyIndex);
 
+        this.patientsDocumentCacheV8 = memoryAwareCaches.buildAsync(LOCAL_CACHE_NAME_V8, PatientsService::weighDocuments,
+                caffeine -> caffeine.expireAfterWrite(PATIENT_DOCUMENTS_TIME_TO_LIVE).buildAsync());
+        var documentsSerializer = new Jackson2JsonRedisSerializer<List<String>>(
+                TypeFactory.defaultInstance().constructCollectionType(List.class, String.class));
+        this.patientsDocumentRedisCacheV8 = new ReactiveRedisTemplate<>(largeValueRedisConnections.reactiveConnectionFactory(),
+                RedisSerializationContext.<String, List<String>>newSerializationContext(new StringRedisSerializer())
+                        .value(documentsSerializerV8(compactRedisSerializers, documentsSerializer))
+                        .build());
+
+        // Caches of whole documents are useless when their budget cannot hold documents of a single patient
+        var documentsBytes = patientDocumentsFetcher.estimatedDocumentsBytes();
+        memoryAwareCaches.expectEntries(LOCAL_CACHE_NAME_V8, documentsBytes);
+        memoryAwareCaches.expectEntries(
+                NearCacheManager.localCacheName(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5), documentsBytes);
+        memoryAwareCaches.expectEntries(
+                NearCacheManager.localCacheName(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6), documentsBytes);
+
+        // Annotation based caches are refreshed ahead by key, outside of the request which read the stale entry
+        nearCacheManager.registerReloader(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5, this::reloadPatientDocuments);
+        nearCacheManager.registerReloader(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6, this::reloadPatientDocuments);
+    }
+
+    private static <K, V> Expiry<K, V> expireAfterWrite(Duration timeToLive) {
+        return new Expiry<>() {
+            @Override
+            public long expireAfterCreate(K key, V value, long currentTime) {
+                return timeToLive.toNanos();
+            }
+
+            @Override
+            public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+                return timeToLive.toNanos();
+            }
+
+            @Override
+            public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisSerializer<List<String>> documentsSerializerV8(CompactRedisSerializers compactRedisSerializers,
+                                                                      RedisSerializer<List<String>> legacySerializer) {
+        // Both serializers read and write List<String> values only
+        var serializer = compactRedisSerializers.forCache(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8,
+                (RedisSerializer<Object>) (RedisSerializer<?>) legacySerializer);
+        return (RedisSerializer<List<String>>) (RedisSerializer<?>) serializer;
     }
 
     /**
@@ -90,17 +221,20 @@ public class PatientsService {
 
 
     /**
-     * Get patient documents with caching mechanism based on java.util.concurrent.ConcurrentHashMap and programmatic approach
+     * Get patient documents with caching mechanism based on java.util.concurrent.ConcurrentMap and programmatic approach
+     * <p>
+     * The map is a view of a memory budgeted cache, so it cannot grow beyond its byte budget and shrinks under heap
+     * pressure.
      * <p>
      * PROS:
      * - Almost zero entry level.
-     * - Uses embedded in Java SDK so none additional library is needed.
+     * - Plain java.util.concurrent.ConcurrentMap API.
      * - Zero additional components in the architecture needed.
      * <p>
      * CONS:
      * - Uses RAM memory in order to store cache data (which is always limited)
      * - Using RAM as the data storage may be problematic with bigger datasets.
-     * - Memory it is occupied as long as the application is running or the entry in Map is deleted.
+     * - Entries are evicted only when the memory budget is exceeded, never because they are outdated.
      * - Cache has to be manually evicted (if necessary).
      * - Cache state is not kept between application restarts
      * <p>
@@ -111,8 +245,8 @@ public class PatientsService {
     public PatientDocumentsResponse getPatientDocumentsV2(String patientId) {
         log.info("Fetching patient documents in V2 implementation. Patient id: {}", patientId);
         var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
-        var cachedOrFetchedDocuments = patientsDocumentCacheV2.computeIfAbsent(patientId, this::fetchPatientDocumentsFromVerySlowExternalService);
-        return new PatientDocumentsResponse(patient, cachedOrFetchedDocuments);
+        var cachedOrFetchedDocuments = patientsDocumentCacheV2.computeIfAbsent(patientId, this::fetchPatientDocumentRefsFromVerySlowExternalService);
+        return new PatientDocumentsResponse(patient, documentChunkStore.assemble(cachedOrFetchedDocuments));
     }
 
     /**
@@ -121,12 +255,14 @@ public class PatientsService {
      * PROS:
      * - Entry level similar to V2 approach.
      * - Cache can be automatically evicted after specific period of time or when too much memory is consumed.
+     * - Entries are refreshed in the background ahead of their expiration, so callers do not wait for reloads.
      * - Zero additional components in the architecture needed.
+     * - Optional off-heap tier keeps more entries in RAM without growing the heap (and GC pauses).
      * <p>
      * CONS:
      * - Uses RAM memory in order to store cache data (which is always limited)
      * - Using RAM as the data storage may be problematic with bigger datasets.
-     * - Cache state is not kept between application restarts
+     * - Cache state is not kept between application restarts, unless the off-heap tier is backed by a memory-mapped file
      * <p>
      *
      * @param patientId
@@ -135,8 +271,8 @@ public class PatientsService {
     public PatientDocumentsResponse getPatientDocumentsV3(String patientId) {
         log.info("Fetching patient documents in V3 implementation. Patient id: {}", patientId);
         var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
-        var cachedOrFetchedDocuments = patientsDocumentCacheV3.get(patientId, this::fetchPatientDocumentsFromVerySlowExternalService);
-        return new PatientDocumentsResponse(patient, cachedOrFetchedDocuments);
+        var cachedOrFetchedDocuments = patientsDocumentCacheV3.get(patientId);
+        return new PatientDocumentsResponse(patient, documentChunkStore.assemble(cachedOrFetchedDocuments));
     }
 
     /**
@@ -147,6 +283,9 @@ public class PatientsService {
      * - Does not use RAM memory in order to store cache data.
      * - Cache is kept between application restarts
      * - Cache is shared between different instances of the same microservice (especially important when horizontal scaling is enabled)
+     * - Concurrent misses of the same patient are coalesced, so only one pod calls the external service.
+     * - Entries are refreshed in the background ahead of their expiration, so callers do not wait for reloads.
+     * - Value and remaining TTL are read in one round trip and loaded values are written to Redis asynchronously.
      * <p>
      * CONS:
      * - Slightly higher entry level than in V2 and V3 (Redis Spring SDK knowledge required)
@@ -159,13 +298,205 @@ public class PatientsService {
     public PatientDocumentsResponse getPatientDocumentsV4(String patientId) {
         log.info("Fetching patient documents in V4 implementation. Patient id: {}", patientId);
         var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
-        var cachedDocuments = patientsDocumentCacheV4.opsForValue().get(patientId);
+        return new PatientDocumentsResponse(patient, documentChunkStore.assemble(loadPatientDocumentRefsV4(patientId)));
+    }
+
+    /**
+     * Same as {@link #getPatientDocumentsV3(String)}, but returns document references so they can be streamed
+     * to the client without materializing the documents.
+     *
+     * @param patientId
+     * @return PatientDocumentRefs
+     */
+    public PatientDocumentRefs getPatientDocumentRefsV3(String patientId) {
+        log.info("Fetching patient document references in V3 implementation. Patient id: {}", patientId);
+        var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
+        var cachedOrFetchedDocuments = patientsDocumentCacheV3.get(patientId);
+        return new PatientDocumentRefs(patient, cachedOrFetchedDocuments);
+    }
+
+    /**
+     * Same as {@link #getPatientDocumentsV4(String)}, but document references are read straight from the cached Redis
+     * bytes (or fetched as references on a miss), so they can be streamed to the client without materializing the
+     * documents.
+     *
+     * @param patientId
+     * @return PatientDocumentRefs
+     */
+    public PatientDocumentRefs getPatientDocumentRefsV4(String patientId) {
+        log.info("Fetching patient document references in V4 implementation. Patient id: {}", patientId);
+        var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
+        return new PatientDocumentRefs(patient, loadPatientDocumentRefsV4(patientId));
+    }
+
+    /**
+     * Same as {@link #getPatientDocumentRefsV3(String)} for many patients at once: all of them are looked up with one
+     * cache call and the missing ones are fetched concurrently by one bulk load.
+     *
+     * @param patientIds ids of the logged doctor's patients, all of them when empty
+     * @return document references in order of the (distinct) patient ids
+     */
+    public List<PatientDocumentRefs> getPatientDocumentRefsV3(Collection<String> patientIds) {
+        var requestedPatients = getPatientsByLoggedDoctorOrThrowNotFound(patientIds);
+        log.info("Fetching document references of {} patients in V3 implementation", requestedPatients.size());
+        var cachedOrFetchedDocuments = patientsDocumentCacheV3.getAll(requestedPatients.stream().map(Patient::patientId).toList());
+        return requestedPatients.stream()
+                .map(patient -> new PatientDocumentRefs(patient, cachedOrFetchedDocuments.get(patient.patientId())))
+                .toList();
+    }
+
+    /**
+     * Same as {@link #getPatientDocumentRefsV4(String)} for many patients at once: all of them are read from Redis
+     * in one round trip and the missing ones are loaded concurrently.
+     *
+     * @param patientIds ids of the logged doctor's patients, all of them when empty
+     * @return document references in order of the (distinct) patient ids
+     */
+    public List<PatientDocumentRefs> getPatientDocumentRefsV4(Collection<String> patientIds) {
+        var requestedPatients = getPatientsByLoggedDoctorOrThrowNotFound(patientIds);
+        log.info("Fetching document references of {} patients in V4 implementation", requestedPatients.size());
+        var requestedIds = requestedPatients.stream().map(Patient::patientId).toList();
+        var documents = new HashMap<>(readPatientDocumentRefsV4(requestedIds));
+        var missingIds = requestedIds.stream().filter(patientId -> !documents.containsKey(patientId)).toList();
+        documents.keySet().forEach(patientId -> patientsDocumentMetricsV4.recordHit());
+        missingIds.forEach(patientId -> patientsDocumentMetricsV4.recordMiss());
+        documents.putAll(loadPatientDocumentRefsV4(missingIds));
+        return requestedPatients.stream()
+                .map(patient -> new PatientDocumentRefs(patient, documents.get(patient.patientId())))
+                .toList();
+    }
+
+    private List<DocumentRef> loadPatientDocumentRefsV3(String patientId) {
+        if (patientsDocumentOffHeapStoreV3.isEmpty()) {
+            return fetchPatientDocumentRefsFromVerySlowExternalService(patientId);
+        }
+        var offHeapStore = patientsDocumentOffHeapStoreV3.get();
+        var cachedDocuments = compactSerializer.deserializeRefs(offHeapStore.get(patientId));
         if (!CollectionUtils.isEmpty(cachedDocuments)) {
-            return new PatientDocumentsResponse(patient, cachedDocuments);
+            return cachedDocuments;
+        }
+        return fetchPatientDocumentRefsV3(patientId);
+    }
+
+    private Map<String, List<DocumentRef>> loadPatientDocumentRefsV3(Set<? extends String> patientIds) {
+        var documents = new HashMap<String, List<DocumentRef>>();
+        patientsDocumentOffHeapStoreV3.ifPresent(offHeapStore -> patientIds.forEach(patientId -> {
+            var cachedDocuments = compactSerializer.deserializeRefs(offHeapStore.get(patientId));
+            if (!CollectionUtils.isEmpty(cachedDocuments)) {
+                documents.put(patientId, cachedDocuments);
+            }
+        }));
+        var missingIds = patientIds.stream().filter(patientId -> !documents.containsKey(patientId)).toList();
+        if (!missingIds.isEmpty()) {
+            var fetchedDocuments = patientDocumentsFetcher.fetchDocumentRefsBlocking(missingIds);
+            patientsDocumentOffHeapStoreV3.ifPresent(offHeapStore -> fetchedDocuments.forEach((patientId, fetched) ->
+                    offHeapStore.put(patientId, compactSerializer.serialize(fetched))));
+            documents.putAll(fetchedDocuments);
+        }
+        return documents;
+    }
+
+    /**
+     * Fetches documents skipping the off-heap tier, which would return the same (stale) value on refresh.
+     */
+    private List<DocumentRef> fetchPatientDocumentRefsV3(String patientId) {
+        var fetchedDocuments = fetchPatientDocumentRefsFromVerySlowExternalService(patientId);
+        patientsDocumentOffHeapStoreV3.ifPresent(offHeapStore ->
+                offHeapStore.put(patientId, compactSerializer.serialize(fetchedDocuments)));
+        return fetchedDocuments;
+    }
+
+    /**
+     * Loads document references, which are fetched from the external service on a miss, so the documents are never
+     * materialized on the way to Redis.
+     * Loaded documents might not have been written yet (write-behind), so they are not read back from Redis.
+     */
+    private List<DocumentRef> loadPatientDocumentRefsV4(String patientId) {
+        var cachedDocuments = patientsDocumentMetricsV4.lookup(() -> readPatientDocumentRefsV4(patientId));
+        if (cachedDocuments != null) {
+            return cachedDocuments;
+        }
+        // Hit or miss is decided by the lookup above, single flight does not look the key up again
+        return singleFlight.loadMissingWriteBehind(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4 + patientId,
+                () -> readPatientDocumentRefsV4(patientId),
+                () -> patientsDocumentMetricsV4.load(() -> fetchAndStorePatientDocumentRefsV4(patientId)));
+    }
+
+    private SingleFlight.Stored<List<DocumentRef>> fetchAndStorePatientDocumentRefsV4(String patientId) {
+        var fetchedDocuments = fetchPatientDocumentRefsFromVerySlowExternalService(patientId);
+        documentChunkStore.publishRegistered();
+        var stored = patientsDocumentCacheV4.set(patientId, patientsDocumentSerializerV4.serializeRefs(fetchedDocuments),
+                PATIENT_DOCUMENTS_TIME_TO_LIVE);
+        redisKeyIndex.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4, patientId, PATIENT_DOCUMENTS_TIME_TO_LIVE);
+        return new SingleFlight.Stored<>(fetchedDocuments, stored);
+    }
+
+    /**
+     * Reads cached document references together with their remaining TTL (in one round trip) and refreshes stale ones.
+     */
+    private List<DocumentRef> readPatientDocumentRefsV4(String patientId) {
+        var cachedValue = patientsDocumentCacheV4.getWithTtl(patientId);
+        var cachedDocuments = patientsDocumentSerializerV4.deserializeRefs(cachedValue.value());
+        if (CollectionUtils.isEmpty(cachedDocuments)) {
+            return null;
+        }
+        refreshPatientDocumentsV4IfStale(patientId, cachedValue.remainingMillis());
+        return cachedDocuments;
+    }
+
+    /**
+     * Reads cached documents of many patients together with their remaining TTL, pipelined.
+     */
+    private Map<String, List<DocumentRef>> readPatientDocumentRefsV4(List<String> patientIds) {
+        if (patientIds.isEmpty()) {
+            return Map.of();
+        }
+        var cachedValues = patientsDocumentCacheV4.getWithTtl(patientIds);
+        var documents = new HashMap<String, List<DocumentRef>>();
+        for (int i = 0; i < patientIds.size(); i++) {
+            var cachedDocuments = patientsDocumentSerializerV4.deserializeRefs(cachedValues.get(i).value());
+            if (!CollectionUtils.isEmpty(cachedDocuments)) {
+                documents.put(patientIds.get(i), cachedDocuments);
+                refreshPatientDocumentsV4IfStale(patientIds.get(i), cachedValues.get(i).remainingMillis());
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Loads documents of many patients, which missed the cache, concurrently, every one of them coalesced by single
+     * flight with loads of the same patient by other callers and pods. Waits at most the fetch timeout.
+     */
+    private Map<String, List<DocumentRef>> loadPatientDocumentRefsV4(List<String> patientIds) {
+        if (patientIds.isEmpty()) {
+            return Map.of();
+        }
+        return Flux.fromIterable(patientIds)
+                .flatMap(patientId -> Mono.fromCallable(() -> Map.entry(patientId,
+                                        singleFlight.loadMissingWriteBehind(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4 + patientId,
+                                                () -> readPatientDocumentRefsV4(patientId),
+                                                () -> patientsDocumentMetricsV4.load(() -> fetchAndStorePatientDocumentRefsV4(patientId)))))
+                                .subscribeOn(Schedulers.boundedElastic()),
+                        patientDocumentsFetcher.batchConcurrency())
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .block(patientDocumentsFetcher.timeout());
+    }
+
+    private void refreshPatientDocumentsV4IfStale(String patientId, long remainingMillis) {
+        if (cacheRefresher.isStale(remainingMillis, PATIENT_DOCUMENTS_TIME_TO_LIVE)) {
+            refreshPatientDocumentsV4(patientId);
         }
-        var fetchedDocuments = fetchPatientDocumentsFromVerySlowExternalService(patientId);
-        patientsDocumentCacheV4.opsForValue().set(patientId, fetchedDocuments, Duration.ofMinutes(15));
-        return new PatientDocumentsResponse(patient, fetchedDocuments);
+    }
+
+    /**
+     * @return whether the documents are being refreshed, {@code false} when the refresh pool is saturated
+     */
+    private boolean refreshPatientDocumentsV4(String patientId) {
+        var key = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4 + patientId;
+        // The refresh runs in the background, so it waits for the write, holding the lease until then
+        return cacheRefresher.refresh(key, () -> singleFlight.refresh(key,
+                () -> patientsDocumentMetricsV4.load(() -> fetchAndStorePatientDocumentRefsV4(patientId)).stored()
+                        .toCompletableFuture().join()));
     }
 
     /**
@@ -179,6 +510,8 @@ public class PatientsService {
      * - Does not use RAM memory in order to store cache data.
      * - Cache is kept between application restarts
      * - Cache is shared between different instances of the same microservice (especially important when horizontal scaling is enabled)
+     * - Hot entries are served from a small pod local near cache, kept consistent between pods by Redis pub/sub
+     * invalidation.
      * <p>
      * CONS:
      * - One (some cache storage provider, e.g. Redis) additional component in the architecture needed.
@@ -188,7 +521,7 @@ public class PatientsService {
      * @param patientId
      * @return List<PatientDocument>
      */
-    @Cacheable(value = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5)
+    @Cacheable(value = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V5, sync = true)
     public PatientDocumentsResponse getPatientDocumentsV5(String patientId) {
         log.info("Fetching patient documents in V5 implementation. Patient id: {}", patientId);
         var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
@@ -208,6 +541,8 @@ public class PatientsService {
      * - Cache is kept between application restarts
      * - Cache is shared between different instances of the same microservice (especially important when horizontal scaling is enabled)
      * - Cache key is aware about logged user id so for every user cache is built independently.
+     * - Hot entries are served from a small pod local near cache, kept consistent between pods by Redis pub/sub
+     * invalidation.
      * <p>
      * CONS:
      * - One (some cache storage provider, e.g. Redis) additional component in the architecture needed.
@@ -217,7 +552,7 @@ public class PatientsService {
      * @param patientId
      * @return List<PatientDocument>
      */
-    @Cacheable(value = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6, keyGenerator = "loginUserAwareCacheKeyGenerator")
+    @Cacheable(value = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V6, keyGenerator = "loginUserAwareCacheKeyGenerator", sync = true)
     public PatientDocumentsResponse getPatientDocumentsV6(String patientId) {
         log.info("Fetching patient documents in V6 implementation. Patient id: {}", patientId);
         var patient = getPatientByLoggedDoctorOrThrowNotFound(patientId);
@@ -226,6 +561,15 @@ public class PatientsService {
     }
 
 
+    /**
+     * Reloads a V5 or V6 entry: documents are fetched again for the patient of the cached response, no doctor is
+     * logged in during the reload.
+     */
+    private Object reloadPatientDocuments(Object key, Object oldValue) {
+        var patient = ((PatientDocumentsResponse) oldValue).patient();
+        return new PatientDocumentsResponse(patient, fetchPatientDocumentsFromVerySlowExternalService(patient.patientId()));
+    }
+
     /**
      * Get patient documents with caching mechanism based on Redis library and aspect oriented programming (AOP) approach
      * BUT WITH A BUG!
@@ -241,30 +585,288 @@ public class PatientsService {
         return getPatientDocumentsV6(patientId);
     }
 
-    private Patient getPatientByLoggedDoctorOrThrowNotFound(String patientId) {
-        var loggedDoctorId = loginService.getLoggedDoctorId();
-        return patients.stream()
-                .filter(it -> Objects.equals(it.doctorId(), loggedDoctorId) && Objects.equals(it.patientId(), patientId))
-                .findFirst()
-                .orElseThrow(NotFoundException::new);
+    /**
+     * Get patient documents with fully non-blocking, two-tier caching mechanism: Caffeine async cache in front of
+     * reactive Redis, falling back to non-blocking fetch from the external service.
+     * <p>
+     * PROS:
+     * - No request thread is held while waiting for Redis or the external service, so throughput is not limited by
+     * the servlet thread pool.
+     * - Concurrent misses of the same patient within the pod share one load (async cache keeps the in-flight future).
+     * - Hot entries are served from RAM, the rest is shared between different instances of the same microservice.
+     * <p>
+     * CONS:
+     * - Highest entry level of all approaches (Project Reactor knowledge required, no thread bound contexts).
+     * - Logged user has to be passed explicitly through Reactor context.
+     * - One (some cache storage provider, e.g. Redis) additional component in the architecture needed.
+     * <p>
+     *
+     * @param patientId
+     * @return Mono<PatientDocumentsResponse>
+     */
+    public Mono<PatientDocumentsResponse> getPatientDocumentsV8(String patientId) {
+        log.info("Fetching patient documents in V8 implementation. Patient id: {}", patientId);
+        return reactiveLoginService.getLoggedDoctorId()
+                .map(loggedDoctorId -> getPatientOrThrowNotFound(loggedDoctorId, patientId))
+                .flatMap(patient -> Mono.fromFuture(patientsDocumentCacheV8.get(patientId, (key, executor) -> loadPatientDocumentsV8(key)))
+                        .map(documents -> new PatientDocumentsResponse(patient, documents)))
+                .contextWrite(reactiveLoginService.withCurrentSecurityContext());
     }
 
+    /**
+     * Redis is accessed through the circuit breaker: while it is open (or when Redis fails) documents are fetched and
+     * not written to Redis.
+     */
+    private CompletableFuture<List<String>> loadPatientDocumentsV8(String patientId) {
+        var redisKey = CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8 + patientId;
+        return redisCircuitBreaker.call(patientsDocumentRedisCacheV8.opsForValue().get(redisKey), Mono.empty())
+                .switchIfEmpty(Mono.defer(() -> patientDocumentsFetcher.fetchDocuments(patientId)
+                        .doOnNext(documents -> documentChunkStore.publishRegistered())
+                        .flatMap(documents -> redisCircuitBreaker.call(
+                                        patientsDocumentRedisCacheV8.opsForValue().set(redisKey, documents, PATIENT_DOCUMENTS_TIME_TO_LIVE),
+                                        Mono.just(false))
+                                .doOnNext(written -> {
+                                    if (written) {
+                                        redisKeyIndex.add(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8,
+                                                redisKey, PATIENT_DOCUMENTS_TIME_TO_LIVE);
+                                    }
+                                })
+                                .thenReturn(documents))))
+                .toFuture();
+    }
 
-    private List<String> fetchPatientDocumentsFromVerySlowExternalService(String patientId) {
+    /**
+     * Drops documents of the patient from the pod local tiers of the programmatic caches: V2, V3 with its off-heap
+     * tier, V4 values kept while Redis was not available and V8.
+     */
+    void evictLocalPatientDocuments(String patientId) {
+        patientsDocumentCacheV2.remove(patientId);
+        patientsDocumentCacheV3.invalidate(patientId);
+        patientsDocumentOffHeapStoreV3.ifPresent(offHeapStore -> offHeapStore.remove(patientId));
+        patientsDocumentCacheV4.deleteLocal(patientId);
+        patientsDocumentCacheV8.synchronous().invalidate(patientId);
+    }
+
+    /**
+     * Drops documents of the patient from the Redis tiers of the programmatic caches (V4, V8).
+     *
+     * @return whether both tiers were evicted, {@code false} when Redis was not available
+     */
+    boolean evictSharedPatientDocuments(String patientId) {
+        var deletion = patientsDocumentCacheV4.delete(patientId);
+        if (deletion == RedisCacheOperations.Deletion.DELETED) {
+            patientsDocumentMetricsV4.recordEviction();
+        }
+        return deleteSharedPatientDocumentsV8(patientId) && deletion != RedisCacheOperations.Deletion.SKIPPED;
+    }
 
+    /**
+     * Reloads documents of the patient cached in the pod local tiers (V2, V3 with its off-heap tier) in the
+     * background, cached documents are served meanwhile. Other local entries are dropped, V8 is loaded from Redis
+     * again on next read.
+     */
+    void refreshLocalPatientDocuments(String patientId) {
+        // Refreshed V3 entry would be loaded from the off-heap tier again
+        patientsDocumentOffHeapStoreV3.ifPresent(offHeapStore -> offHeapStore.remove(patientId));
+        patientsDocumentCacheV4.deleteLocal(patientId);
+        patientsDocumentCacheV8.synchronous().invalidate(patientId);
+        if (!patientsDocumentCacheV2.containsKey(patientId) && !patientsDocumentCacheV3.asMap().containsKey(patientId)) {
+            return;
+        }
+        patientsDocumentCacheV3.refresh(patientId).thenAccept(documents -> {
+            if (documents != null) {
+                patientsDocumentCacheV2.replace(patientId, documents);
+            }
+        });
+    }
+
+    /**
+     * Reloads documents of the patient in the Redis tier of V4 in the background, cached documents are served
+     * meanwhile (or dropped when the refresh pool is saturated). V8 entry is dropped, it is loaded on next read.
+     *
+     * @return whether the V4 refresh was started (or its entry dropped) and V8 entry was dropped, {@code false} when
+     * Redis was not available
+     */
+    boolean refreshSharedPatientDocuments(String patientId) {
+        var refreshed = refreshPatientDocumentsV4(patientId);
+        if (!refreshed) {
+            var deletion = patientsDocumentCacheV4.delete(patientId);
+            if (deletion == RedisCacheOperations.Deletion.DELETED) {
+                patientsDocumentMetricsV4.recordEviction();
+            }
+            refreshed = deletion != RedisCacheOperations.Deletion.SKIPPED;
+        }
+        return deleteSharedPatientDocumentsV8(patientId) && refreshed;
+    }
+
+    private boolean deleteSharedPatientDocumentsV8(String patientId) {
+        // Deleted through the (blocking) V4 operations, bounded by their timeout and skipped while the Redis circuit
+        // is open; both caches use plain Redis keys
+        return patientsDocumentCacheV4.delete(CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8 + patientId)
+                != RedisCacheOperations.Deletion.SKIPPED;
+    }
+
+    /**
+     * Drops all entries of the programmatic cache from the pod local tiers.
+     *
+     * @param cacheName one of {@link #PROGRAMMATIC_CACHE_NAMES}
+     */
+    void clearLocalPatientDocuments(String cacheName) {
+        switch (cacheName) {
+            case LOCAL_CACHE_NAME_V2 -> patientsDocumentCacheV2.clear();
+            case LOCAL_CACHE_NAME_V3 -> {
+                patientsDocumentCacheV3.invalidateAll();
+                patientsDocumentOffHeapStoreV3.ifPresent(OffHeapStore::clear);
+            }
+            case CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4 -> patientsDocumentCacheV4.deleteAllLocal();
+            case CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8 -> patientsDocumentCacheV8.synchronous().invalidateAll();
+            default -> throw new IllegalArgumentException("Unknown programmatic cache " + cacheName);
+        }
+    }
+
+    /**
+     * Drops all entries of the programmatic cache from its Redis tier, if any.
+     *
+     * @param cacheName one of {@link #PROGRAMMATIC_CACHE_NAMES}
+     * @return whether the Redis tier was cleared (or there is none), {@code false} when Redis was not available
+     */
+    boolean clearSharedPatientDocuments(String cacheName) {
+        return switch (cacheName) {
+            case LOCAL_CACHE_NAME_V2, LOCAL_CACHE_NAME_V3 -> true;
+            case CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V4, CachingConfiguration.PATIENTS_DOCUMENTS_CACHE_NAME_V8 ->
+                    redisKeyIndex.clear(cacheName).isPresent();
+            default -> throw new IllegalArgumentException("Unknown programmatic cache " + cacheName);
+        };
+    }
+
+    /**
+     * Loads documents of the patient into the local caches (V2, V3), fetching them at most once.
+     */
+    void warmUpPatientDocuments(String patientId) {
+        var documents = patientsDocumentCacheV3.get(patientId);
+        patientsDocumentCacheV2.putIfAbsent(patientId, documents);
+    }
+
+    /**
+     * Takes a snapshot of the local caches (V2, V3), together with the hottest V3 keys.
+     */
+    CacheSnapshot snapshotLocalCaches(int hotKeysLimit) {
+        var entries = new ArrayList<CacheSnapshot.Entry>();
+        patientsDocumentCacheV2.forEach((patientId, documents) -> entries.add(
+                new CacheSnapshot.Entry(LOCAL_CACHE_NAME_V2, patientId, 0, compactSerializer.serialize(documents))));
+        var expiration = patientsDocumentCacheV3.policy().expireVariably();
+        patientsDocumentCacheV3.asMap().forEach((patientId, documents) -> entries.add(
+                new CacheSnapshot.Entry(LOCAL_CACHE_NAME_V3, patientId,
+                        expiration.flatMap(it -> it.getExpiresAfter(patientId))
+                                .map(remaining -> PATIENT_DOCUMENTS_TIME_TO_LIVE.minus(remaining).toMillis())
+                                .orElse(0L),
+                        compactSerializer.serialize(documents))));
+        var hotKeys = patientsDocumentCacheV3.policy().eviction()
+                .map(eviction -> List.copyOf(eviction.hottest(hotKeysLimit).keySet()))
+                .orElse(List.of());
+        return new CacheSnapshot(System.currentTimeMillis(), hotKeys, entries);
+    }
+
+    /**
+     * Restores entries of the local caches (V2, V3) from the snapshot. V3 entries keep their remaining TTL (their age
+     * in the snapshot plus the downtime counts), the ones which would have expired by now are skipped and the ones
+     * past the soft TTL are refreshed in the background right away. V2 entries never expire.
+     *
+     * @return number of restored entries
+     */
+    int restoreLocalCaches(CacheSnapshot snapshot) {
+        var downtimeMillis = Math.max(0, System.currentTimeMillis() - snapshot.writtenAt());
+        var softTimeToLiveMillis = cacheRefresher.softTimeToLive(PATIENT_DOCUMENTS_TIME_TO_LIVE).toMillis();
+        var expiration = patientsDocumentCacheV3.policy().expireVariably().orElseThrow();
+        var restored = 0;
+        for (var entry : snapshot.entries()) {
+            var ageMillis = entry.ageMillis() + downtimeMillis;
+            var remainingMillis = PATIENT_DOCUMENTS_TIME_TO_LIVE.toMillis() - ageMillis;
+            if (LOCAL_CACHE_NAME_V3.equals(entry.cacheName()) && remainingMillis <= 0) {
+                continue;
+            }
+            var documents = readSnapshotDocuments(entry);
+            if (documents == null) {
+                continue;
+            }
+            if (LOCAL_CACHE_NAME_V2.equals(entry.cacheName())) {
+                patientsDocumentCacheV2.putIfAbsent(entry.key(), documents);
+            } else if (LOCAL_CACHE_NAME_V3.equals(entry.cacheName())) {
+                expiration.putIfAbsent(entry.key(), documents, Duration.ofMillis(remainingMillis));
+                if (ageMillis >= softTimeToLiveMillis) {
+                    patientsDocumentCacheV3.refresh(entry.key());
+                }
+            } else {
+                log.warn("Skipping snapshot entry of unknown cache {}", entry.cacheName());
+                continue;
+            }
+            restored++;
+        }
+        return restored;
+    }
+
+    private List<DocumentRef> readSnapshotDocuments(CacheSnapshot.Entry entry) {
         try {
-            log.info("Fetching patient documents from external service. Patient id: {}", patientId);
-            String documentContent = new String(new ClassPathResource("document.txt").getInputStream().readAllBytes());
-            List<String> documents = new ArrayList<>();
-            IntStream.range(0, 15).forEach(id ->
-                    Mono.just(id)
-                            .delayElement(Duration.ofMillis(100))
-                            .doOnNext(it -> documents.add(patientId + documentContent + UUID.randomUUID()))
-                            .block()
-            );
+            var documents = compactSerializer.deserializeRefs(entry.value());
+            if (CollectionUtils.isEmpty(documents)) {
+                return null;
+            }
+            // Shared content might have changed since the snapshot was taken, such entries could not be served
+            documents.stream()
+                    .filter(document -> !document.isInline())
+                    .map(DocumentRef::chunkHash)
+                    .distinct()
+                    .forEach(documentChunkStore::resolve);
             return documents;
-        } catch (Exception unexpected) {
-            throw new RuntimeException(unexpected);
+        } catch (SerializationException | DocumentChunkStore.MissingChunkException unusable) {
+            log.warn("Skipping unusable snapshot entry {} of {}", entry.key(), entry.cacheName(), unusable);
+            return null;
+        }
+    }
+
+    private Patient getPatientByLoggedDoctorOrThrowNotFound(String patientId) {
+        return getPatientOrThrowNotFound(loginService.getLoggedDoctorId(), patientId);
+    }
+
+    /**
+     * Requested patients of the logged doctor, all of them when no patient ids are given.
+     */
+    private List<Patient> getPatientsByLoggedDoctorOrThrowNotFound(Collection<String> patientIds) {
+        if (CollectionUtils.isEmpty(patientIds)) {
+            var loggedDoctorPatients = patientDirectory.findByDoctor(loginService.getLoggedDoctorId());
+            if (loggedDoctorPatients.size() > MAX_PATIENTS_PER_BATCH) {
+                throw new BadRequestException("Doctor has more than " + MAX_PATIENTS_PER_BATCH + " patients, request them by ids");
+            }
+            return loggedDoctorPatients;
         }
+        if (patientIds.size() > MAX_PATIENTS_PER_BATCH) {
+            throw new BadRequestException("At most " + MAX_PATIENTS_PER_BATCH + " patients can be requested at once");
+        }
+        var loggedDoctorId = loginService.getLoggedDoctorId();
+        return patientIds.stream()
+                .distinct()
+                .map(patientId -> getPatientOrThrowNotFound(loggedDoctorId, patientId))
+                .toList();
+    }
+
+    private Patient getPatientOrThrowNotFound(String doctorId, String patientId) {
+        return patientDirectory.find(doctorId, patientId).orElseThrow(NotFoundException::new);
+    }
+
+
+    private List<String> fetchPatientDocumentsFromVerySlowExternalService(String patientId) {
+        return patientDocumentsFetcher.fetchDocumentsBlocking(patientId);
+    }
+
+    private List<DocumentRef> fetchPatientDocumentRefsFromVerySlowExternalService(String patientId) {
+        return patientDocumentsFetcher.fetchDocumentRefsBlocking(patientId);
+    }
+
+    private static int weigh(String patientId, List<DocumentRef> documents) {
+        return 64 + 2 * patientId.length() + documents.stream().mapToInt(DocumentRef::estimatedBytes).sum();
+    }
+
+    private static int weighDocuments(String patientId, List<String> documents) {
+        return 64 + 2 * patientId.length() + documents.stream().mapToInt(MemoryAwareCaches::stringBytes).sum();
     }
 }
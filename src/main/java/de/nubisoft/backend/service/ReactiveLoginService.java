@@ -0,0 +1,36 @@
+package de.nubisoft.backend.service;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.function.Function;
+
+/**
+ * Reactive counterpart of {@link LoginService}.
+ * <p>
+ * Reactive pipelines hop between threads, so the logged doctor is read from the Reactor context instead of
+ * the thread bound {@link SecurityContextHolder}.
+ */
+@Service
+public class ReactiveLoginService {
+
+    public Mono<String> getLoggedDoctorId() {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .map(Authentication::getName)
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("No doctor is logged in")));
+    }
+
+    /**
+     * Copies the security context established by {@code SecurityFilter} for the current request into the Reactor
+     * context. Has to be called on the request thread, when the pipeline is assembled.
+     */
+    public Function<Context, Context> withCurrentSecurityContext() {
+        return ReactiveSecurityContextHolder.withSecurityContext(Mono.just(SecurityContextHolder.getContext()));
+    }
+}
@@ -0,0 +1,114 @@
+package de.nubisoft.backend.cache;
+
+import de.nubisoft.backend.domain.Patient;
+import de.nubisoft.backend.domain.PatientDocumentsResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class CompactRedisSerializerTest {
+
+    private static final List<String> DOCUMENTS = List.of(
+            "Patient 1, document 1: blood test",
+            "Patient 1, document 2: x-ray",
+            "Patient 1, document 3: \u017C\u00F3\u0142\u0107 \uD83D\uDE00 prescription");
+
+    private final RedisSerializer<Object> legacySerializer = RedisSerializer.java();
+
+    private final CompactRedisSerializer serializer =
+            new CompactRedisSerializer(legacySerializer, true, Deflater.BEST_SPEED, null);
+
+    @Test
+    void roundTripsDocuments() {
+        var bytes = serializer.serialize(DOCUMENTS);
+
+        assertThat(CompactRedisSerializer.isCompact(bytes)).isTrue();
+        assertThat(serializer.deserialize(bytes)).isEqualTo(DOCUMENTS);
+    }
+
+    @Test
+    void roundTripsPatientDocumentsResponse() {
+        var response = new PatientDocumentsResponse(new Patient("1", "2"), DOCUMENTS);
+
+        assertThat(serializer.deserialize(serializer.serialize(response))).isEqualTo(response);
+    }
+
+    @Test
+    void roundTripsCompressedDocuments() {
+        var documents = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            // Documents differ at the start, so the shared content is not written as a delta of the previous one
+            documents.add(i + ": content repeated in every document of the patient, written once compressed");
+        }
+
+        var bytes = serializer.serialize(documents);
+
+        assertThat(bytes.length).isLessThan(documents.stream().mapToInt(String::length).sum() / 4);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(documents);
+    }
+
+    @Test
+    void roundTripsEmptyDocuments() {
+        assertThat(serializer.deserialize(serializer.serialize(List.of()))).isEqualTo(List.of());
+    }
+
+    @Test
+    void readsLegacyValues() {
+        var legacyBytes = legacySerializer.serialize(DOCUMENTS);
+
+        assertThat(CompactRedisSerializer.isCompact(legacyBytes)).isFalse();
+        assertThat(serializer.deserialize(legacyBytes)).isEqualTo(DOCUMENTS);
+        assertThat(serializer.deserializeRefs(legacyBytes)).isEqualTo(DOCUMENTS.stream().map(DocumentRef::inline).toList());
+    }
+
+    @Test
+    void writesLegacyFormatWhileCompactWritesAreDisabled() {
+        var legacyWriter = new CompactRedisSerializer(legacySerializer, false, Deflater.BEST_SPEED, null);
+
+        var bytes = legacyWriter.serialize(DOCUMENTS);
+
+        // Readable by pods which do not know the compact format yet
+        assertThat(CompactRedisSerializer.isCompact(bytes)).isFalse();
+        assertThat(legacySerializer.deserialize(bytes)).isEqualTo(DOCUMENTS);
+        assertThat(serializer.deserialize(bytes)).isEqualTo(DOCUMENTS);
+    }
+
+    @Test
+    void writesUnsupportedTypesInLegacyFormat() {
+        var value = new HashMap<>(Map.of("key", "value"));
+
+        var bytes = serializer.serialize(value);
+
+        assertThat(CompactRedisSerializer.isCompact(bytes)).isFalse();
+        assertThat(serializer.deserialize(bytes)).isEqualTo(value);
+    }
+
+    @Test
+    void writesSharedContentAsChunkReference() {
+        var circuitBreaker = new RedisCircuitBreaker(5, Duration.ofSeconds(10), new SimpleMeterRegistry());
+        var chunkStore = new DocumentChunkStore(mock(StringRedisTemplate.class), 1024 * 1024, Duration.ofDays(1), circuitBreaker);
+        var sharedContent = "Shared content of all documents. ".repeat(100);
+        var hash = chunkStore.register(sharedContent);
+        var chunkingSerializer = new CompactRedisSerializer(legacySerializer, true, Deflater.BEST_SPEED, chunkStore);
+        var documents = List.of("Document 1: " + sharedContent + " end 1", "Document 2: " + sharedContent + " end 2");
+
+        var bytes = chunkingSerializer.serialize(documents);
+
+        assertThat(bytes.length).isLessThan(sharedContent.length());
+        assertThat(chunkingSerializer.deserializeRefs(bytes)).containsExactly(
+                new DocumentRef("Document 1: ", hash, " end 1"),
+                new DocumentRef("Document 2: ", hash, " end 2"));
+        assertThat(chunkingSerializer.deserialize(bytes)).isEqualTo(documents);
+    }
+}
@@ -0,0 +1,136 @@
+package de.nubisoft.backend.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapStoreTest {
+
+    private static final Duration TIME_TO_LIVE = Duration.ofMinutes(15);
+
+    /**
+     * Header (32 bytes), 2 bytes of key and 46 bytes of value: three records fit into {@link #RING_CAPACITY}.
+     */
+    private static final int RECORD_BYTES = 80;
+
+    private static final int RING_CAPACITY = 3 * RECORD_BYTES + RECORD_BYTES / 2;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresEntriesAfterRestart() {
+        var file = directory.resolve("store.offheap");
+        var store = new OffHeapStore(file, 64 * 1024, TIME_TO_LIVE);
+        store.put("a", bytes("value of a"));
+        store.put("b", bytes("value of b"));
+        store.put("a", bytes("new value of a"));
+        store.put("c", bytes("value of c"));
+        store.remove("c");
+        store.destroy();
+
+        var restored = new OffHeapStore(file, 64 * 1024, TIME_TO_LIVE);
+
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.get("a")).isEqualTo(bytes("new value of a"));
+        assertThat(restored.get("b")).isEqualTo(bytes("value of b"));
+        assertThat(restored.get("c")).isNull();
+    }
+
+    @Test
+    void evictsOldestRecordsWhenRingIsFull() {
+        var store = new OffHeapStore(directory.resolve("store.offheap"), RING_CAPACITY, TIME_TO_LIVE);
+        for (int i = 1; i <= 4; i++) {
+            store.put(key(i), value(i));
+        }
+
+        // The fourth record starts over from the beginning, overwriting the first one
+        assertThat(store.get(key(1))).isNull();
+        assertThat(store.get(key(2))).isEqualTo(value(2));
+        assertThat(store.get(key(3))).isEqualTo(value(3));
+        assertThat(store.get(key(4))).isEqualTo(value(4));
+    }
+
+    @Test
+    void restoresCurrentLapOfRing() {
+        var file = directory.resolve("store.offheap");
+        var store = new OffHeapStore(file, RING_CAPACITY, TIME_TO_LIVE);
+        for (int i = 1; i <= 5; i++) {
+            store.put(key(i), value(i));
+        }
+        store.destroy();
+
+        var restored = new OffHeapStore(file, RING_CAPACITY, TIME_TO_LIVE);
+
+        // Records of the previous lap follow the current one in the file, their older sequence ends the scan
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.get(key(4))).isEqualTo(value(4));
+        assertThat(restored.get(key(5))).isEqualTo(value(5));
+        assertThat(restored.get(key(3))).isNull();
+
+        // Writing continues after the restored records
+        restored.put(key(6), value(6));
+        assertThat(restored.get(key(4))).isEqualTo(value(4));
+        assertThat(restored.get(key(5))).isEqualTo(value(5));
+        assertThat(restored.get(key(6))).isEqualTo(value(6));
+    }
+
+    @Test
+    void doesNotReturnExpiredEntries() throws InterruptedException {
+        var store = new OffHeapStore(null, 64 * 1024, Duration.ofMillis(1));
+        store.put("a", bytes("value of a"));
+
+        Thread.sleep(10);
+
+        assertThat(store.get("a")).isNull();
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void skipsValuesLargerThanBuffer() {
+        var store = new OffHeapStore(null, 1024, TIME_TO_LIVE);
+
+        store.put("a", new byte[2048]);
+
+        assertThat(store.get("a")).isNull();
+    }
+
+    @Test
+    void rejectsDirectBufferAboveHalfOfMaxDirectMemory() {
+        var maxDirectMemory = OffHeapStore.maxDirectMemory();
+        assertThat(maxDirectMemory).isPositive();
+
+        if (maxDirectMemory / 2 < Integer.MAX_VALUE) {
+            assertThatThrownBy(() -> new OffHeapStore(null, maxDirectMemory / 2 + 1, TIME_TO_LIVE))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void parsesJvmSizes() {
+        assertThat(OffHeapStore.parseSize("1024")).isEqualTo(1024);
+        assertThat(OffHeapStore.parseSize("64k")).isEqualTo(64 * 1024);
+        assertThat(OffHeapStore.parseSize("256m")).isEqualTo(256 * 1024 * 1024);
+        assertThat(OffHeapStore.parseSize("2G")).isEqualTo(2L * 1024 * 1024 * 1024);
+    }
+
+    private static String key(int i) {
+        return "k" + i;
+    }
+
+    private static byte[] value(int i) {
+        var value = new byte[RECORD_BYTES - 32 - 2];
+        value[0] = (byte) i;
+        return value;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
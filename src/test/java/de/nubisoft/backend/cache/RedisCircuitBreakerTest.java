@@ -0,0 +1,152 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RedisCircuitBreakerTest {
+
+    private static final int FAILURE_THRESHOLD = 3;
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(50);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final RedisCircuitBreaker circuitBreaker = new RedisCircuitBreaker(FAILURE_THRESHOLD, OPEN_DURATION, meterRegistry);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            assertThat(circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback")).isEqualTo("fallback");
+            assertThat(circuitBreaker.isOpen()).isFalse();
+        }
+
+        circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback");
+
+        assertThat(circuitBreaker.isOpen()).isTrue();
+        assertThat(state()).isEqualTo(1);
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        for (int i = 0; i < FAILURE_THRESHOLD - 1; i++) {
+            circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback");
+        }
+        circuitBreaker.call(() -> "redis", () -> "fallback");
+        circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback");
+
+        assertThat(circuitBreaker.isOpen()).isFalse();
+    }
+
+    @Test
+    void doesNotCallRedisWhileOpen() {
+        open();
+        var calls = new AtomicInteger();
+
+        var result = circuitBreaker.call(() -> "redis " + calls.incrementAndGet(), () -> "fallback");
+
+        assertThat(result).isEqualTo("fallback");
+        assertThat(calls).hasValue(0);
+        assertThat(meterRegistry.counter(RedisCircuitBreaker.REJECTED_COUNTER_NAME).count()).isEqualTo(1);
+    }
+
+    @Test
+    void otherFailuresDoNotCount() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertThatThrownBy(() -> circuitBreaker.call(() -> {
+                throw new IllegalStateException("not a Redis failure");
+            }, () -> "fallback")).isInstanceOf(IllegalStateException.class);
+        }
+
+        assertThat(circuitBreaker.isOpen()).isFalse();
+    }
+
+    @Test
+    void letsSingleTrialCallThroughAfterOpenDuration() throws InterruptedException {
+        open();
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+        assertThat(state()).isEqualTo(2);
+        // The trial call is in flight
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void closesWhenTrialCallSucceeds() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+        assertThat(circuitBreaker.call(() -> "redis", () -> "fallback")).isEqualTo("redis");
+
+        assertThat(circuitBreaker.isOpen()).isFalse();
+        assertThat(state()).isEqualTo(0);
+    }
+
+    @Test
+    void reopensWhenTrialCallFails() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+        circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback");
+
+        assertThat(state()).isEqualTo(1);
+        assertThat(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void reactiveCallFallsBackOnFailureAndWhileOpen() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            var result = circuitBreaker.call(Mono.<String>error(new QueryTimeoutException("timeout")), Mono.just("fallback"));
+            assertThat(result.block()).isEqualTo("fallback");
+        }
+        assertThat(circuitBreaker.isOpen()).isTrue();
+
+        var subscriptions = new AtomicInteger();
+        var redisCall = Mono.fromSupplier(() -> "redis " + subscriptions.incrementAndGet());
+
+        assertThat(circuitBreaker.call(redisCall, Mono.just("fallback")).block()).isEqualTo("fallback");
+        assertThat(subscriptions).hasValue(0);
+    }
+
+    @Test
+    void cancelledTrialCallLetsNextCallThrough() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() * 2);
+
+        circuitBreaker.call(Mono.never(), Mono.just("fallback")).subscribe().dispose();
+
+        assertThat(state()).isEqualTo(1);
+        assertThat(circuitBreaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void rejectsNonPositiveFailureThreshold() {
+        assertThatThrownBy(() -> new RedisCircuitBreaker(0, OPEN_DURATION, meterRegistry))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void open() {
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            circuitBreaker.call(RedisCircuitBreakerTest::timeout, () -> "fallback");
+        }
+        assertThat(circuitBreaker.isOpen()).isTrue();
+    }
+
+    private double state() {
+        return meterRegistry.get(RedisCircuitBreaker.STATE_GAUGE_NAME).gauge().value();
+    }
+
+    private static String timeout() {
+        throw new QueryTimeoutException("Redis command timed out");
+    }
+}
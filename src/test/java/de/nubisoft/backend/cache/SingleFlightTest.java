@@ -0,0 +1,158 @@
+package de.nubisoft.backend.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SingleFlightTest {
+
+    private static final String KEY = "cache:key";
+
+    private static final String LEASE_KEY = "single-flight:" + KEY;
+
+    private static final Duration LEASE_TIME = Duration.ofMillis(200);
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(10);
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+
+    private SingleFlight singleFlight;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        var circuitBreaker = new RedisCircuitBreaker(5, Duration.ofSeconds(10), new SimpleMeterRegistry());
+        singleFlight = new SingleFlight(redisTemplate, LEASE_TIME, POLL_INTERVAL, circuitBreaker);
+    }
+
+    @Test
+    void releasesLeaseAfterLoad() {
+        leaseIsFree();
+
+        var value = singleFlight.load(KEY, () -> null, () -> "loaded");
+
+        assertThat(value).isEqualTo("loaded");
+        verifyLeaseReleased();
+    }
+
+    @Test
+    void releasesLeaseWhenLoaderFails() {
+        leaseIsFree();
+
+        assertThatThrownBy(() -> singleFlight.load(KEY, () -> null, () -> {
+            throw new IllegalStateException("load failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        verifyLeaseReleased();
+    }
+
+    @Test
+    void keepsWriteBehindLeaseUntilValueIsStored() {
+        leaseIsFree();
+        var stored = new CompletableFuture<Void>();
+
+        var value = singleFlight.loadMissingWriteBehind(KEY, () -> null, () -> new SingleFlight.Stored<>("loaded", stored));
+
+        assertThat(value).isEqualTo("loaded");
+        verify(redisTemplate, never()).execute(any(RedisScript.class), any(List.class), any());
+
+        stored.complete(null);
+
+        verify(redisTemplate, timeout(1000)).execute(any(RedisScript.class), eq(List.of(LEASE_KEY)), any());
+    }
+
+    @Test
+    void returnsValueStoredByLeaseHolder() {
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME))).thenReturn(false);
+        var lookups = new AtomicInteger();
+        var loads = new AtomicInteger();
+
+        var value = singleFlight.loadMissing(KEY,
+                () -> lookups.incrementAndGet() < 3 ? null : "stored by holder",
+                () -> "loaded " + loads.incrementAndGet());
+
+        assertThat(value).isEqualTo("stored by holder");
+        assertThat(loads).hasValue(0);
+    }
+
+    @Test
+    void takesOverReleasedLease() {
+        // Held by another pod on the first attempt, released afterwards without storing the value
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME))).thenReturn(false, true);
+        var lookups = new AtomicInteger();
+
+        var value = singleFlight.loadMissing(KEY, () -> {
+            lookups.incrementAndGet();
+            return null;
+        }, () -> "loaded");
+
+        assertThat(value).isEqualTo("loaded");
+        // Once while waiting, once more after the lease was acquired, as the holder might have stored the value
+        assertThat(lookups).hasValue(2);
+        verifyLeaseReleased();
+    }
+
+    @Test
+    void loadsOnItsOwnWhenLeaseIsNotReleasedInTime() {
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME))).thenReturn(false);
+        var start = System.nanoTime();
+
+        var value = singleFlight.loadMissing(KEY, () -> null, () -> "loaded");
+
+        assertThat(value).isEqualTo("loaded");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(LEASE_TIME);
+        // The lease is not ours, so it is not released
+        verify(redisTemplate, never()).execute(any(RedisScript.class), any(List.class), any());
+    }
+
+    @Test
+    void loadsWithoutLeaseWhenRedisFails() {
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME)))
+                .thenThrow(new QueryTimeoutException("Redis command timed out"));
+
+        var value = singleFlight.loadMissing(KEY, () -> null, () -> "loaded");
+
+        assertThat(value).isEqualTo("loaded");
+        verify(redisTemplate, never()).execute(any(RedisScript.class), any(List.class), any());
+    }
+
+    @Test
+    void skipsRefreshWhileLeaseIsHeldByOther() {
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME))).thenReturn(false);
+        var refreshes = new AtomicInteger();
+
+        assertThat(singleFlight.refresh(KEY, refreshes::incrementAndGet)).isFalse();
+        assertThat(refreshes).hasValue(0);
+    }
+
+    private void leaseIsFree() {
+        when(valueOperations.setIfAbsent(eq(LEASE_KEY), anyString(), eq(LEASE_TIME))).thenReturn(true);
+    }
+
+    private void verifyLeaseReleased() {
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of(LEASE_KEY)), any());
+    }
+}